@@ -35,10 +35,17 @@ public class App {
 
     System.out.println("Getting data from server...");
 
-    var inputController = new ServerInputController(settings);
-    var drone =
-        new Drone(
-            settings, inputController, new FileOutputController(settings));
-    drone.start();
+    try {
+      var inputController = new ServerInputController(settings);
+      var drone =
+          new Drone(
+              settings, inputController, new FileOutputController(settings));
+      drone.start();
+    } catch (RuntimeException e) {
+      // Errors in the input or flight planning are thrown rather than exiting, so that a
+      // PlanningService can fail one job without stopping the others. Here there is only one job.
+      System.out.println("Fatal error: " + e.getMessage());
+      System.exit(1);
+    }
   }
 }
@@ -1,6 +1,8 @@
 package uk.ac.ed.inf.aqmaps;
 
 import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.flightplanning.PlanningExecutor;
+import uk.ac.ed.inf.aqmaps.flightplanning.TourMethod;
 import uk.ac.ed.inf.aqmaps.io.InputController;
 import uk.ac.ed.inf.aqmaps.io.OutputController;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
@@ -12,6 +14,7 @@ public class Drone {
   private final Settings settings;
   private final InputController input;
   private final OutputController output;
+  private final PlanningExecutor planningExecutor;
 
   /**
    * @param settings the current Settings
@@ -19,13 +22,32 @@ public class Drone {
    * @param output the OutputController which handles data output
    */
   public Drone(Settings settings, InputController input, OutputController output) {
+    this(settings, input, output, PlanningExecutor.getDefault());
+  }
+
+  /**
+   * @param settings the current Settings
+   * @param input the InputController which handles data input
+   * @param output the OutputController which handles data output
+   * @param planningExecutor the worker threads to run flight planning on
+   */
+  public Drone(
+      Settings settings,
+      InputController input,
+      OutputController output,
+      PlanningExecutor planningExecutor) {
     this.settings = settings;
     this.input = input;
     this.output = output;
+    this.planningExecutor = planningExecutor;
   }
 
-  /** Start the drone and perform route planning and data collection for the given settings. */
-  public void start() {
+  /**
+   * Start the drone and perform route planning and data collection for the given settings.
+   *
+   * @return the flight plan which the drone followed
+   */
+  public List<Move> start() {
     // Create a flight plan and record it in the results
     var flightPlan = planRoute();
 
@@ -40,6 +62,7 @@ public class Drone {
     System.out.printf("Outputting GeoJSON and shortest flight plan with %d moves%n", flightPlan.size());
     output.outputFlightpath(results.getFlightpathString());
     output.outputMapGeoJSON(results.getMapGeoJSON());
+    return flightPlan;
   }
 
   /**
@@ -54,7 +77,12 @@ public class Drone {
     var sensorW3Ws = input.getSensorW3Ws();
     var flightPlanner =
         new FlightPlanner(
-            obstacles, sensorW3Ws, settings.getRandomSeed(), settings.getMaxRunTime());
+            obstacles,
+            sensorW3Ws,
+            settings.getRandomSeed(),
+            settings.getMaxRunTime(),
+            TourMethod.TWO_OPT,
+            planningExecutor);
 
     // Run the flight planning algorithm
     return flightPlanner.createBestFlightPlan(settings.getStartCoords());
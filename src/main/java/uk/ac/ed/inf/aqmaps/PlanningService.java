@@ -0,0 +1,134 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.flightplanning.PlanningExecutor;
+import uk.ac.ed.inf.aqmaps.io.FileOutputController;
+import uk.ac.ed.inf.aqmaps.io.InputController;
+import uk.ac.ed.inf.aqmaps.io.OutputController;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs many drone jobs in one JVM, each for its own date and start position given by a Settings.
+ * Each job runs on its own thread, which does the job's input and output and waits while its
+ * flight is planned. These are virtual threads when the JVM has them (Java 21 and later), so
+ * waiting on the server or the filesystem does not hold on to a platform thread, and platform
+ * threads otherwise. The CPU bound flight planning of every job runs on one shared {@link
+ * PlanningExecutor} with a fixed number of workers. The jobs take turns on the workers a batch of
+ * seeds at a time, so a job which starts later is not stuck behind the ones before it.
+ *
+ * <p>The time limit of each job's Settings is the time budget for planning its flight. It starts
+ * when the job starts planning, and is shared fairly with any other jobs planning at the same
+ * time. A time limit of 0 runs a fixed number of iterations as usual.
+ *
+ * <p>A job which fails, for example because the server has no data for its date or no flight plan
+ * can be found, completes its future exceptionally and the other jobs carry on. The progress
+ * messages of the jobs all go to System.out, so those of jobs running at the same time are mixed
+ * together. Each message is a whole line, and the results of each job only go to its own
+ * OutputController.
+ */
+public class PlanningService implements AutoCloseable {
+  /** Numbers the jobs, to name the platform threads which are used without virtual threads */
+  private static final AtomicInteger jobCounter = new AtomicInteger(1);
+
+  private final PlanningExecutor planningExecutor;
+  private final ExecutorService jobExecutor;
+  private final boolean virtualThreads;
+  private final Function<Settings, InputController> inputs;
+  private final Function<Settings, OutputController> outputs;
+
+  /**
+   * Constructor for jobs which get their data from the web server and write their output to files
+   * in the current directory, as the App does.
+   *
+   * @param workers the number of worker threads for flight planning
+   */
+  public PlanningService(int workers) {
+    this(workers, ServerInputController::new, FileOutputController::new);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param workers the number of worker threads for flight planning
+   * @param inputs creates the InputController for a job, which is called on the job's thread
+   * @param outputs creates the OutputController for a job, which is called on the job's thread
+   */
+  public PlanningService(
+      int workers,
+      Function<Settings, InputController> inputs,
+      Function<Settings, OutputController> outputs) {
+    this.planningExecutor = new PlanningExecutor(workers);
+    this.inputs = inputs;
+    this.outputs = outputs;
+
+    var virtualExecutor = createVirtualThreadExecutor();
+    this.virtualThreads = virtualExecutor != null;
+    this.jobExecutor =
+        virtualThreads
+            ? virtualExecutor
+            : Executors.newCachedThreadPool(
+                runnable -> {
+                  var thread = new Thread(runnable, "drone-job-" + jobCounter.getAndIncrement());
+                  thread.setDaemon(true);
+                  return thread;
+                });
+  }
+
+  /**
+   * Finds Executors.newVirtualThreadPerTaskExecutor() by reflection, since this is built for Java
+   * 11 which does not have it.
+   *
+   * @return an executor which starts a virtual thread for each task, or null if the JVM does not
+   *     support them
+   */
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      var method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      // Before Java 21 the method is missing, or needs preview features to be turned on
+      return null;
+    }
+  }
+
+  /**
+   * Starts a job which plans a flight and flies the drone along it for the given settings.
+   *
+   * @param settings the settings of the job
+   * @return a future which completes with the flight plan which the drone followed, or
+   *     exceptionally with the exception which stopped the job
+   */
+  public CompletableFuture<List<Move>> submit(Settings settings) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          var input = inputs.apply(settings);
+          var output = outputs.apply(settings);
+          return new Drone(settings, input, output, planningExecutor).start();
+        },
+        jobExecutor);
+  }
+
+  /** @return true if the jobs run on virtual threads, false if they run on platform threads */
+  public boolean usesVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /** Stops accepting jobs, and waits for the jobs which have already been submitted to finish. */
+  @Override
+  public void close() {
+    jobExecutor.shutdown();
+    try {
+      jobExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    planningExecutor.close();
+  }
+}
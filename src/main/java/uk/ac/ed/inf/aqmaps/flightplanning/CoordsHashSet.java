@@ -0,0 +1,113 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+/**
+ * A set of positions stored in primitive arrays with open addressing and linear probing. Positions
+ * are compared by the bits of their coordinates, which is the same as {@link Coords#equals} for
+ * every coordinate other than zero, but adding one does not allocate anything. Clearing the set
+ * only increments a counter, so a single set can be reused for many navigations without refilling
+ * the arrays.
+ */
+class CoordsHashSet {
+  /** The set grows once it is this full, to keep the probe sequences short */
+  private static final double MAX_LOAD = 0.5;
+
+  // The bits of the coordinates of the position in each slot
+  private long[] xs;
+  private long[] ys;
+  /** The slots which hold a position have the current generation here */
+  private int[] generations;
+
+  private int generation = 1;
+  private int size = 0;
+
+  /** The number of slots the set starts with, which it shrinks back to when it is cleared */
+  private final int initialSlots;
+
+  /** @param capacity the number of positions to allocate space for initially */
+  CoordsHashSet(int capacity) {
+    initialSlots = Integer.highestOneBit(Math.max(2, (int) (capacity / MAX_LOAD)) - 1) << 1;
+    allocate(initialSlots);
+  }
+
+  /**
+   * Adds a position to the set if it is not already there.
+   *
+   * @param coords the position
+   * @return true if the position was added, false if it was already in the set
+   */
+  boolean add(Coords coords) {
+    var x = Double.doubleToLongBits(coords.x);
+    var y = Double.doubleToLongBits(coords.y);
+    int mask = xs.length - 1;
+    int slot = hash(x, y) & mask;
+    while (generations[slot] == generation) {
+      if (xs[slot] == x && ys[slot] == y) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    xs[slot] = x;
+    ys[slot] = y;
+    generations[slot] = generation;
+    if (++size > MAX_LOAD * xs.length) {
+      grow();
+    }
+    return true;
+  }
+
+  /**
+   * Removes every position from the set, keeping the arrays for reuse. If one navigation made the
+   * set grow, the arrays go back to their initial size, so that a set which is kept between
+   * navigations does not hold on to the memory of the largest one.
+   */
+  void clear() {
+    size = 0;
+    if (xs.length > initialSlots) {
+      allocate(initialSlots);
+    } else if (++generation == 0) {
+      // After wrapping around, old slots could look current again, so empty them
+      allocate(xs.length);
+    }
+  }
+
+  /** Doubles the number of slots, moving the positions into their new slots. */
+  private void grow() {
+    var oldXs = xs;
+    var oldYs = ys;
+    var oldGenerations = generations;
+    int oldGeneration = generation;
+    allocate(2 * oldXs.length);
+    int mask = xs.length - 1;
+    for (int i = 0; i < oldXs.length; i++) {
+      if (oldGenerations[i] == oldGeneration) {
+        int slot = hash(oldXs[i], oldYs[i]) & mask;
+        while (generations[slot] == generation) {
+          slot = (slot + 1) & mask;
+        }
+        xs[slot] = oldXs[i];
+        ys[slot] = oldYs[i];
+        generations[slot] = generation;
+      }
+    }
+  }
+
+  private void allocate(int slots) {
+    xs = new long[slots];
+    ys = new long[slots];
+    generations = new int[slots];
+    generation = 1;
+  }
+
+  /** Mixes the bits of the coordinates into a hash, using the finaliser from MurmurHash3. */
+  private static int hash(long x, long y) {
+    var h = x * 31 + y;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
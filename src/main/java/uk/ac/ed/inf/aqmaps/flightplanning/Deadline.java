@@ -0,0 +1,51 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+/**
+ * A point in time after which flight planning should stop, which is passed down to the tour
+ * methods, {@link FlightPlanner#computeFlightLength} and {@link
+ * WaypointNavigation#navigateToLocation} so that they can give up partway through. Checking it only
+ * reads the clock, so it can be done at the top of any loop which does more than a few
+ * microseconds of work per pass.
+ */
+public final class Deadline {
+  /** A deadline which never passes */
+  public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+  /** The System.nanoTime() at which the deadline passes */
+  private final long endTime;
+
+  private Deadline(long endTime) {
+    this.endTime = endTime;
+  }
+
+  /**
+   * @param endTime the System.nanoTime() at which the deadline passes
+   * @return the deadline
+   */
+  public static Deadline at(long endTime) {
+    return new Deadline(endTime);
+  }
+
+  /**
+   * @param seconds the number of seconds from now at which the deadline passes
+   * @return the deadline
+   */
+  public static Deadline after(double seconds) {
+    return new Deadline(System.nanoTime() + (long) (seconds * 1e9));
+  }
+
+  /** @return true if this deadline never passes */
+  public boolean isNone() {
+    return endTime == Long.MAX_VALUE;
+  }
+
+  /** @return the System.nanoTime() at which the deadline passes, if it ever does */
+  public long getEndTime() {
+    return endTime;
+  }
+
+  /** @return true if the deadline has passed */
+  public boolean hasPassed() {
+    return !isNone() && System.nanoTime() - endTime >= 0;
+  }
+}
@@ -17,24 +17,28 @@
  */
 package uk.ac.ed.inf.aqmaps.flightplanning;
 
-import org.jgrapht.Graph;
-import org.jgrapht.GraphPath;
-import org.jgrapht.Graphs;
-import org.jgrapht.alg.tour.TwoOptHeuristicTSP;
-import org.jgrapht.graph.DefaultWeightedEdge;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
 
-import java.util.*;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 /**
- * A modified version of TwoOptHeuristicTSP from JGraphT which is used to compute tours which visit
- * all sensors and returns to the starting point. Source code of TwoOptHeuristicTSP can be found <a
+ * A 2-opt tour improver based on TwoOptHeuristicTSP from JGraphT which is used to compute tours
+ * which visit all sensors and returns to the starting point. Source code of TwoOptHeuristicTSP can
+ * be found <a
  * href="https://github.com/jgrapht/jgrapht/blob/master/jgrapht-core/src/main/java/org/jgrapht/alg/tour/TwoOptHeuristicTSP.java">here
  * (GitHub)</a>.
  *
  * <p><a href="https://jgrapht.org/">JGraphT main website</a>, <a
  * href="https://github.com/jgrapht/jgrapht">GitHub source</a>, accessed 30/11/2020
  *
+ * <p>This used to extend TwoOptHeuristicTSP, but now works only on tours stored as arrays of the
+ * point ids of a {@link SensorGraph}, so that no candidate tour needs a GraphPath or a list of
+ * Coords to be built. The first stage reproduces the library exactly: the same random initial tours
+ * from the same seed, and the same sequence of moves, so the resulting tours are unchanged.
+ *
  * <p>The following JavaDoc is unchanged from the the original:
  *
  * <p>The 2-opt heuristic algorithm for the TSP problem.
@@ -47,29 +51,42 @@ import java.util.*;
  * generates <em>passes</em> initial tours and then iteratively improves the tours until a local
  * minimum is reached. In each iteration it applies the best possible 2-opt move which means to find
  * the best pair of edges $(i,i+1)$ and $(j,j+1)$ such that replacing them with $(i,j)$ and
- * $(i+1,j+1)$ minimizes the tour length. The default initial tours use RandomTour, however an
- * alternative algorithm can be provided to create the initial tour. Initial tours generated using
- * NearestNeighborHeuristicTSP give good results and performance.
+ * $(i+1,j+1)$ minimizes the tour length.
  *
  * <p>See <a href="https://en.wikipedia.org/wiki/2-opt">wikipedia</a> for more details.
  *
- * <p>This implementation can also be used in order to try to improve an existing tour. See method
- * {@link #improveTour(GraphPath)}}.
- *
  * @author Dimitrios Michail
  */
-public class EnhancedTwoOptTSP extends TwoOptHeuristicTSP<Coords, DefaultWeightedEdge> {
+public class EnhancedTwoOptTSP {
+  /** The smallest decrease in the direct distance length of a tour that counts as an improvement */
+  private static final double MIN_COST_IMPROVEMENT = 1e-8;
+  /**
+   * The number of segment moves with the best change in direct length to check with the
+   * FlightPlanner when no 2-opt move improves a tour
+   */
+  private static final int MAX_SEGMENT_CONFIRMATIONS = 16;
+
+  /** The number of initial random tours to improve with the direct distances */
+  private final int passes;
+  /** The random number generator for the initial tours */
+  private final Random random;
   /** The start and end position of the drone */
   private final Coords start;
   /** The FlightPlanner for computing tour weights */
   private final FlightPlanner flightPlanner;
-  /** A graph representation of the sensors */
-  private Graph<Coords, DefaultWeightedEdge> graph;
+  /** The deadline at which to stop improving the tour */
+  private final Deadline deadline;
 
-  // These fields are from the original TwoOptHeuristicTSP and are used in copied functions
+  // These fields are set for each sensor graph a tour is found in
   private int n;
-  private Map<Coords, Integer> index;
-  private Map<Integer, Coords> revIndex;
+  /** The id of the start position in the sensor graph */
+  private int startId;
+  /** The point with each id */
+  private Coords[] points;
+  /** The obstacle avoiding distances between the points, indexed by [i * n + j] */
+  private double[] dist;
+  /** The straight line distances between the points, indexed by [i * n + j] */
+  private double[] directDist;
 
   /**
    * Constructor
@@ -81,29 +98,189 @@ public class EnhancedTwoOptTSP extends TwoOptHeuristicTSP<Coords, DefaultWeighte
    *     as the number of moves needed by the drone
    */
   public EnhancedTwoOptTSP(int passes, int seed, Coords start, FlightPlanner flightPlanner) {
-    super(passes, seed);
+    this(passes, seed, start, flightPlanner, Deadline.NONE);
+  }
+
+  /**
+   * Constructor for finding tours with a deadline. Once the deadline has passed, the tour found so
+   * far is returned as it is. The first stage using the direct distances always finishes, since it
+   * takes well under a millisecond and its tour is much better than a random one.
+   *
+   * @param passes how many initial random tours to check when running 2-opt
+   * @param seed the random seed
+   * @param start the start position of the drone
+   * @param flightPlanner the FlightPlanner to use for the second 2-opt pass to compute tour weights
+   *     as the number of moves needed by the drone
+   * @param deadline the deadline at which to stop improving the tour
+   */
+  public EnhancedTwoOptTSP(
+      int passes, int seed, Coords start, FlightPlanner flightPlanner, Deadline deadline) {
+    if (passes < 1) {
+      throw new IllegalArgumentException("passes must be at least one");
+    }
+    this.passes = passes;
+    this.random = new Random(seed);
     this.start = start;
     this.flightPlanner = flightPlanner;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Constructor for improving tours found in some other way with {@link #improveTour}.
+   *
+   * @param start the start and end position of the drone
+   * @param flightPlanner the FlightPlanner to use to compute tour weights as the number of moves
+   *     needed by the drone
+   * @param deadline the deadline at which to stop improving the tour
+   */
+  EnhancedTwoOptTSP(Coords start, FlightPlanner flightPlanner, Deadline deadline) {
+    this(1, 0, start, flightPlanner, deadline);
+  }
+
+  /**
+   * Computes a tour by first running 2-opt from random initial tours using the distances in the
+   * sensor graph, which are straight line (obstacle avoiding) distance measures, as
+   * TwoOptHeuristicTSP does. Then, it runs a second pass of 2-opt to further improve upon the tour
+   * by instead using a FlightPlanner to generate the actual drone moves along the tour and using
+   * the number of moves as the weight of a tour.
+   *
+   * @param sensorGraph the sensor graph containing the start location and the sensors, and the
+   *     distances of the shortest paths between two points which avoid obstacles.
+   * @return the tour as a list of Coords which starts and ends at the start position
+   */
+  public List<Coords> getTour(SensorGraph sensorGraph) {
+    init(sensorGraph);
+    if (n == 1) {
+      return List.of(start, start);
+    }
+
+    var best = improveDirect(createInitialTour());
+    for (int i = 1; i < passes; i++) {
+      var other = improveDirect(createInitialTour());
+      if (getWeight(other) < getWeight(best)) {
+        best = other;
+      }
+    }
+    var view = new TourView(improve(best));
+    view.update();
+    return new ArrayList<>(view);
   }
 
   /**
-   * (Reduced version of library code as we aren't using dist[][])
+   * (Replaces the library's improveTour(), which took a GraphPath)
    *
-   * <p>Initialize graph and mapping to integer vertices.
+   * <p>Try to improve a tour by running the second stage of {@link #getTour} on it, using the
+   * FlightPlanner to measure the length of tours.
    *
-   * @param graph the input graph
+   * @param sensorGraph the sensor graph containing the start location and the sensors
+   * @param tour a closed tour of the ids of the points in the sensor graph
+   * @return the tour as a list of Coords which starts and ends at the start position
    */
-  private void init(Graph<Coords, DefaultWeightedEdge> graph) {
-    this.graph = graph;
-    this.n = graph.vertexSet().size();
-    this.index = new HashMap<>();
-    this.revIndex = new HashMap<>();
-    int i = 0;
-    for (var v : graph.vertexSet()) {
-      index.put(v, i);
-      revIndex.put(i, v);
-      i++;
+  List<Coords> improveTour(SensorGraph sensorGraph, int[] tour) {
+    init(sensorGraph);
+    if (n == 1) {
+      return List.of(start, start);
     }
+    var view = new TourView(improve(tour));
+    view.update();
+    return new ArrayList<>(view);
+  }
+
+  /**
+   * (Replaces the library's init(), which built a two dimensional distance matrix from the edges of
+   * the graph)
+   *
+   * <p>Copies the points and distances of the sensor graph into flat arrays.
+   *
+   * @param sensorGraph the sensor graph
+   */
+  private void init(SensorGraph sensorGraph) {
+    n = sensorGraph.size();
+    startId = sensorGraph.getId(start);
+    points = new Coords[n];
+    dist = new double[n * n];
+    directDist = new double[n * n];
+    for (int i = 0; i < n; i++) {
+      points[i] = sensorGraph.getPoint(i);
+    }
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        dist[i * n + j] = sensorGraph.getDistance(i, j);
+        directDist[i * n + j] = points[i].distance(points[j]);
+      }
+    }
+  }
+
+  /**
+   * (Replaces the library's use of RandomTourTSP)
+   *
+   * <p>Creates a random closed tour. This shuffles the ids exactly as Collections.shuffle shuffles
+   * a list of the vertices, so the same seed gives the same tour as the library.
+   *
+   * @return an array containing the index of the vertices of the tour
+   */
+  private int[] createInitialTour() {
+    var tour = new int[n + 1];
+    for (int i = 0; i < n; i++) {
+      tour[i] = i;
+    }
+    for (int i = n; i > 1; i--) {
+      int j = random.nextInt(i);
+      int tmp = tour[i - 1];
+      tour[i - 1] = tour[j];
+      tour[j] = tmp;
+    }
+    tour[n] = tour[0];
+    return tour;
+  }
+
+  /**
+   * (Code unchanged from the library's improve() other than the flat distance matrix)
+   *
+   * <p>Improve the tour using the 2-opt heuristic. In each iteration it applies the best possible
+   * 2-opt move which means to find the best pair of edges $(i,i+1)$ and $(j,j+1)$ such that
+   * replacing them with $(i,j)$ and $(i+1,j+1)$ minimizes the tour length.
+   *
+   * <p>The returned array instance might or might not be the input array.
+   *
+   * @param tour the input tour
+   * @return a possibly improved tour
+   */
+  private int[] improveDirect(int[] tour) {
+    int[] newTour = new int[n + 1];
+    boolean moved;
+    do {
+      moved = false;
+      double minChange = -MIN_COST_IMPROVEMENT;
+      int mini = -1;
+      int minj = -1;
+      for (int i = 0; i < n - 2; i++) {
+        for (int j = i + 2; j < n; j++) {
+          int ci = tour[i];
+          int ci1 = tour[i + 1];
+          int cj = tour[j];
+          int cj1 = tour[j + 1];
+          double change =
+              dist[ci * n + cj] + dist[ci1 * n + cj1] - dist[ci * n + ci1] - dist[cj * n + cj1];
+          if (change < minChange) {
+            minChange = change;
+            mini = i;
+            minj = j;
+          }
+        }
+      }
+      if (mini != -1 && minj != -1) {
+        // apply move
+        applyMove(tour, newTour, mini, minj);
+        // swap tours
+        int[] tmp = tour;
+        tour = newTour;
+        newTour = tmp;
+        moved = true;
+      }
+    } while (moved);
+
+    return tour;
   }
 
   /**
@@ -120,44 +297,69 @@ public class EnhancedTwoOptTSP extends TwoOptHeuristicTSP<Coords, DefaultWeighte
    * 2-opt with direct distance measures, drastic changes to the tour are unlikely to improve it,
    * and are also computationally expensive since they are longer and may collide with more
    * buildings and so on. To avoid this, only tours which are close in distance to the original will
-   * be tried.
-   *
-   * <p>Original JGraphT JavaDoc:
+   * be tried. Since the direct distances are symmetric, the change in direct length of a move can
+   * be found from the 4 edges it changes, as in the library.
    *
-   * <p>Improve the tour using the 2-opt heuristic. In each iteration it applies the best possible
-   * 2-opt move which means to find the best pair of edges $(i,i+1)$ and $(j,j+1)$ such that
-   * replacing them with $(i,j)$ and $(i+1,j+1)$ minimizes the tour length.
+   * <p>When no 2-opt move improves the tour, segment moves are tried instead, see {@link
+   * #findSegmentMove}. A 2-opt move reverses the direction of travel, and so the corner cutting,
+   * of every leg inside it, which a segment move mostly does not.
    *
-   * <p>The returned array instance might or might not be the input array.
+   * <p>Each candidate is written into the same scratch array, and the FlightPlanner reads it
+   * through a {@link TourView}, so trying a candidate does not allocate anything here.
    *
    * @param tour the input tour
    * @return a possibly improved tour
    */
   private int[] improve(int[] tour) {
     int[] newTour = new int[n + 1];
+    int[] tempTour = new int[n + 1];
+    var tempView = new TourView(tempTour);
+    var candidates = new SegmentMoves(MAX_SEGMENT_CONFIRMATIONS);
+    var prefix = new FlightPrefix(n + 1);
     boolean moved;
     do {
-      // Calculate the direct and drone lengths of the current state of the tour
-      var originalList = getTourAsList(tour);
-      var originalDirectLength = getDirectLength(originalList);
-      int originalLength = flightPlanner.computeFlightLength(originalList);
+      // Calculate the direct and drone lengths of the current state of the tour, recording the
+      // drone's flight so that each candidate only needs to be flown from where it differs
+      var originalView = new TourView(tour);
+      originalView.update();
+      var originalDirectLength = getDirectLength(tour);
+      int originalLength = flightPlanner.computeFlightLength(originalView, prefix, deadline);
 
       moved = false;
       var minChange = 0;
       int mini = -1;
       int minj = -1;
       for (int i = 0; i < n - 2; i++) {
+        // Flights given up on at the deadline look too long to be chosen, so stop here instead
+        if (deadline.hasPassed()) {
+          return tour;
+        }
         for (int j = i + 2; j < n; j++) {
-          // Apply the move to a temporary tour
-          int[] tempTour = new int[n + 1];
-          applyMove(tour, tempTour, i, j);
-          var vertexList = getTourAsList(tempTour);
+          int ci = tour[i];
+          int ci1 = tour[i + 1];
+          int cj = tour[j];
+          int cj1 = tour[j + 1];
+          double directChange =
+              directDist[ci * n + cj]
+                  + directDist[ci1 * n + cj1]
+                  - directDist[ci * n + ci1]
+                  - directDist[cj * n + cj1];
 
           // The input graph has already been through 2-opt with the direct length calculation,
           // so only try to swap when the change is relatively minor
-          var newDirectLength = getDirectLength(vertexList);
-          if (newDirectLength < originalDirectLength * 1.1) {
-            int change = flightPlanner.computeFlightLength(vertexList) - originalLength;
+          if (directChange < originalDirectLength * 0.1) {
+            // Apply the move to a temporary tour
+            applyMove(tour, tempTour, i, j);
+            tempView.update();
+            // Any candidate at least as long as the best so far can be given up on early
+            int change =
+                flightPlanner.computeFlightLength(
+                        tempView,
+                        prefix,
+                        originalView.firstDifference(tempView),
+                        originalLength + minChange,
+                        deadline)
+                    - originalLength;
             if (change < minChange) {
               minChange = change;
               mini = i;
@@ -169,11 +371,17 @@ public class EnhancedTwoOptTSP extends TwoOptHeuristicTSP<Coords, DefaultWeighte
       if (mini != -1 && minj != -1) {
         // apply move
         applyMove(tour, newTour, mini, minj);
+        moved = true;
+      } else {
+        moved =
+            findSegmentMove(
+                originalView, newTour, tempTour, tempView, candidates, prefix, originalLength);
+      }
+      if (moved) {
         // swap tours
         int[] tmp = tour;
         tour = newTour;
         newTour = tmp;
-        moved = true;
       }
     } while (moved);
 
@@ -181,40 +389,162 @@ public class EnhancedTwoOptTSP extends TwoOptHeuristicTSP<Coords, DefaultWeighte
   }
 
   /**
-   * New method, not in the library. Converts a tour as an array to the corresponding list of
-   * Coords.
+   * (New method, not in the library). Looks for a move which takes a segment of the tour out and
+   * puts it back in between two other consecutive vertices, either way round. Segments of 1 to 3
+   * vertices give the Or-opt moves, and longer ones the segment insertion moves of 3-opt, which
+   * together with 2-opt make up most of the useful 3-opt moves. Segments longer than half of the
+   * tour are not tried, since moving one is much the same as moving the rest of the tour.
+   *
+   * <p>There are O(n^3) such moves, which is too many to plan a flight along each, so they are
+   * ranked by their change in direct length, which takes constant time to find. Only the best few
+   * which do not make the direct length longer are then checked with the FlightPlanner, in order,
+   * and the first one that makes the flight shorter is used.
+   *
+   * @param originalView the view of the current tour
+   * @param newTour the array to write the improved tour into
+   * @param tempTour a scratch array for candidate tours
+   * @param tempView the view of the scratch array
+   * @param candidates the buffer to rank the moves in
+   * @param prefix the recorded flight along the current tour
+   * @param originalLength the flight length of the current tour
+   * @return true if an improved tour was written into newTour
+   */
+  private boolean findSegmentMove(
+      TourView originalView,
+      int[] newTour,
+      int[] tempTour,
+      TourView tempView,
+      SegmentMoves candidates,
+      FlightPrefix prefix,
+      int originalLength) {
+    var tour = originalView.tour;
+    candidates.clear();
+    for (int length = 1; length <= n / 2 && length <= n - 3; length++) {
+      for (int i = 0; i < n; i++) {
+        int p = tour[(i + n - 1) % n];
+        int a = tour[i];
+        int b = tour[(i + length - 1) % n];
+        int q = tour[(i + length) % n];
+        double removeChange =
+            directDist[p * n + q] - directDist[p * n + a] - directDist[b * n + q];
+        // Try to insert the segment after each of the vertices outside of it other than p
+        for (int offset = 1; offset < n - length; offset++) {
+          int j = (i + length - 1 + offset) % n;
+          int c = tour[j];
+          int d = tour[(j + 1) % n];
+          double insertChange = removeChange - directDist[c * n + d];
+          candidates.offer(
+              insertChange + directDist[c * n + a] + directDist[b * n + d],
+              i,
+              length,
+              offset,
+              false);
+          if (length > 1) {
+            candidates.offer(
+                insertChange + directDist[c * n + b] + directDist[a * n + d],
+                i,
+                length,
+                offset,
+                true);
+          }
+        }
+      }
+    }
+
+    for (int k = 0; k < candidates.size; k++) {
+      if (deadline.hasPassed()) {
+        return false;
+      }
+      applySegmentMove(
+          tour,
+          tempTour,
+          candidates.starts[k],
+          candidates.lengths[k],
+          candidates.offsets[k],
+          candidates.reversed[k]);
+      tempView.update();
+      if (flightPlanner.computeFlightLength(
+              tempView, prefix, originalView.firstDifference(tempView), originalLength, deadline)
+          < originalLength) {
+        System.arraycopy(tempTour, 0, newTour, 0, n + 1);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * (New method, not in the library). Moves a segment of a tour to a new place, see {@link
+   * #findSegmentMove}. The new tour is written starting from the vertex after the segment, so it
+   * is rotated compared to the original.
    *
-   * @param tour a tour as an int[]
-   * @return a List of Coords
+   * @param tour the tour to apply the move to
+   * @param newTour the new tour with the move applied
+   * @param i the position of the first vertex of the segment
+   * @param length the number of vertices in the segment
+   * @param offset the number of vertices after the segment that the segment will be put after
+   * @param reversed whether the segment will be put back the other way round
    */
-  private List<Coords> getTourAsList(int[] tour) {
-    List<Coords> originalList = tourToPath(tour).getVertexList();
-    // The first element in the vertex list seems to be random, but we want it to be the start
-    originalList.remove(0); // The first and last elements are duplicates, so remove the duplicate
-
-    // Rotate the list backwards so the starting position is at the front
-    Collections.rotate(originalList, -originalList.indexOf(start));
-    originalList.add(
-        originalList.get(0)); // Put the starting position as the ending position as well
-    return originalList;
+  private void applySegmentMove(
+      int[] tour, int[] newTour, int i, int length, int offset, boolean reversed) {
+    int a = 0;
+    for (int k = 1; k <= offset; k++) {
+      newTour[a++] = tour[(i + length - 1 + k) % n];
+    }
+    for (int k = 0; k < length; k++) {
+      newTour[a++] = tour[(i + (reversed ? length - 1 - k : k)) % n];
+    }
+    for (int k = offset + 1; k < n - length + 1; k++) {
+      newTour[a++] = tour[(i + length - 1 + k) % n];
+    }
+    newTour[n] = newTour[0];
   }
 
   /**
    * (New method, not in the library). Computes the length of tour using the direct real distance
-   * between the vertices.
+   * between the vertices, adding up the legs in order from the start position.
    *
-   * @param tourList the tour as a list of Coords
+   * @param tour a closed tour
    * @return the length of the tour in degrees, using euclidean distance (not using the flight
    *     planner)
    */
-  private double getDirectLength(List<Coords> tourList) {
+  private double getDirectLength(int[] tour) {
+    int offset = indexOfStart(tour);
     double directLength = 0;
-    for (int i = 0; i < tourList.size() - 1; i++) {
-      directLength += tourList.get(i).distance(tourList.get(i + 1));
+    for (int k = 0; k < n; k++) {
+      int from = tour[(offset + k) % n];
+      int to = tour[(offset + k + 1) % n];
+      directLength += directDist[from * n + to];
     }
     return directLength;
   }
 
+  /**
+   * (Replaces the library's use of GraphPath.getWeight())
+   *
+   * @param tour a closed tour
+   * @return the length of the tour using the obstacle avoiding distances
+   */
+  private double getWeight(int[] tour) {
+    double weight = 0;
+    for (int k = 0; k < n; k++) {
+      weight += dist[tour[k] * n + tour[k + 1]];
+    }
+    return weight;
+  }
+
+  /**
+   * @param tour a closed tour
+   * @return the position of the start position in the tour, other than the last
+   */
+  private int indexOfStart(int[] tour) {
+    int offset = 0;
+    while (tour[offset] != startId) {
+      offset++;
+    }
+    return offset;
+  }
+
   /**
    * This code is part of the original library's improve(), but it is extracted into a method to
    * avoid duplication as this class uses it in more than one place.
@@ -238,72 +568,112 @@ public class EnhancedTwoOptTSP extends TwoOptHeuristicTSP<Coords, DefaultWeighte
   }
 
   /**
-   * (Code and Javadoc unchanged from library other than type parameters)
-   *
-   * <p>Transform from an array representation to a graph path.
-   *
-   * @param tour an array containing the index of the vertices of the tour
-   * @return a graph path
+   * (New class, not in the library). A closed tour of ids seen as a list of Coords which is
+   * rotated to start and end at the start position, which is how the FlightPlanner takes tours. It
+   * reads the array each time, so it can be reused for each tour written into the same array, as
+   * long as {@link #update()} is called after writing each one, including the first.
    */
-  private GraphPath<Coords, DefaultWeightedEdge> tourToPath(int[] tour) {
-    List<Coords> tourVertices = new ArrayList<>(n + 1);
-    for (int vi : tour) {
-      Coords v = revIndex.get(vi);
-      tourVertices.add(v);
+  private class TourView extends AbstractList<Coords> {
+    private final int[] tour;
+    /** The position of the start position in the array */
+    private int offset;
+
+    /** @param tour the array the closed tours will be written into */
+    TourView(int[] tour) {
+      this.tour = tour;
     }
-    return closedVertexListToTour(tourVertices, graph);
-  }
 
-  /**
-   * (Code and Javadoc unchanged from library other than type parameters)
-   *
-   * <p>Transform from a path representation to an array representation.
-   *
-   * @param path graph path
-   * @return an array containing the index of the vertices of the tour
-   */
-  private int[] pathToTour(GraphPath<Coords, DefaultWeightedEdge> path) {
-    int i = 0;
-    int[] tour = new int[n + 1];
-    var v = path.getStartVertex();
-    tour[i++] = index.get(v);
-    for (var e : path.getEdgeList()) {
-      v = Graphs.getOppositeVertex(graph, e, v);
-      tour[i++] = index.get(v);
+    /** Finds the start position again after a new tour has been written into the array. */
+    void update() {
+      offset = indexOfStart(tour);
     }
-    return tour;
-  }
 
-  /**
-   * Computes a tour by first using JGraphT's TwoOptHeuristicTSP (the superclass of this) to find a
-   * short tour using the edge weights in the provided graph, which are straight line (obstacle
-   * avoiding) distance measures. Then, it runs a second pass of 2-opt to further improve upon the
-   * tour by instead using a FlightPlanner to generate the actual drone moves along the tour and
-   * using the number of moves as the weight of a tour.
-   *
-   * @param graph the input sensor graph containing the start location and the sensors, and edge
-   *     weights of the shortest path between two points which avoids obstacles.
-   * @return the tour as a GraphPath
-   */
-  @Override
-  public GraphPath<Coords, DefaultWeightedEdge> getTour(Graph<Coords, DefaultWeightedEdge> graph) {
-    var directDistanceTour = super.getTour(graph);
-    return improveTour(directDistanceTour);
+    /**
+     * @param other a view of another tour of the same points
+     * @return the first index at which the two views have different points
+     */
+    int firstDifference(TourView other) {
+      int index = 0;
+      while (index <= n && idAt(index) == other.idAt(index)) {
+        index++;
+      }
+      return index;
+    }
+
+    /**
+     * @param index an index in the view
+     * @return the id of the point at that index
+     */
+    private int idAt(int index) {
+      return tour[(offset + index) % n];
+    }
+
+    @Override
+    public Coords get(int index) {
+      return points[tour[(offset + index) % n]];
+    }
+
+    @Override
+    public int size() {
+      return n + 1;
+    }
   }
 
   /**
-   * (Code unchanged from library code other than type parameters)
-   *
-   * <p>Try to improve a tour by running the 2-opt heuristic using the FlightPlanner to measure the
-   * length of tours.
-   *
-   * @param graphPath a tour
-   * @return a possibly improved tour
+   * (New class, not in the library). Keeps the segment moves with the smallest change in direct
+   * length seen so far, in increasing order of change, ignoring any which do not make the tour
+   * shorter. See {@link #findSegmentMove}.
    */
-  @Override
-  public GraphPath<Coords, DefaultWeightedEdge> improveTour(
-      GraphPath<Coords, DefaultWeightedEdge> graphPath) {
-    init(graphPath.getGraph());
-    return tourToPath(improve(pathToTour(graphPath)));
+  private static class SegmentMoves {
+    private final double[] changes;
+    private final int[] starts;
+    private final int[] lengths;
+    private final int[] offsets;
+    private final boolean[] reversed;
+    private int size;
+
+    /** @param capacity the number of moves to keep */
+    SegmentMoves(int capacity) {
+      changes = new double[capacity];
+      starts = new int[capacity];
+      lengths = new int[capacity];
+      offsets = new int[capacity];
+      reversed = new boolean[capacity];
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    /**
+     * Keeps the move if it is one of the best so far.
+     *
+     * @param change the change in direct length of the move
+     * @param start the position of the first vertex of the segment
+     * @param length the number of vertices in the segment
+     * @param offset the number of vertices after the segment that the segment will be put after
+     * @param isReversed whether the segment will be put back the other way round
+     */
+    void offer(double change, int start, int length, int offset, boolean isReversed) {
+      if (change > -MIN_COST_IMPROVEMENT
+          || (size == changes.length && change >= changes[size - 1])) {
+        return;
+      }
+      // Insertion sort, dropping the worst move if full
+      int k = size < changes.length ? size++ : size - 1;
+      while (k > 0 && changes[k - 1] > change) {
+        changes[k] = changes[k - 1];
+        starts[k] = starts[k - 1];
+        lengths[k] = lengths[k - 1];
+        offsets[k] = offsets[k - 1];
+        reversed[k] = reversed[k - 1];
+        k--;
+      }
+      changes[k] = change;
+      starts[k] = start;
+      lengths[k] = length;
+      offsets[k] = offset;
+      reversed[k] = isReversed;
+    }
   }
 }
@@ -7,7 +7,7 @@ import java.util.stream.Collectors;
 
 /**
  * A wrapper class for a flight plan as a list of moves, and the random seed that was used to
- * generate it. This is needed so that results can be sorted by seed before finding the minimum,
+ * generate it. This is needed so that ties between the shortest plans can be broken by seed,
  * allowing for consistent operation even when concurrency is used.
  */
 public class FlightPlan {
@@ -0,0 +1,66 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+/**
+ * Keeps the shortest flight plan out of those given to it so far, along with the minimum, mean and
+ * maximum lengths, so that the other plans do not need to be kept. Plans may be given to it from
+ * many threads at once. When plans are the same length the one with the lowest seed is kept, so the
+ * result does not depend on the order the plans arrive in.
+ */
+class FlightPlanReducer {
+  /** The shortest plan so far */
+  private FlightPlan best;
+  /** The number of plans so far */
+  private int count;
+  /** The total length of the plans so far */
+  private long totalLength;
+  /** The length of the longest plan so far */
+  private int maxLength = Integer.MIN_VALUE;
+
+  /**
+   * Adds a plan, keeping it if it is the shortest so far. A plan which is shorter than every plan
+   * before it is reported while the lock is held, so the reports are printed in the order the best
+   * plan changed and their lengths always decrease.
+   *
+   * @param plan the flight plan
+   */
+  synchronized void accept(FlightPlan plan) {
+    var length = plan.getMoves().size();
+    count++;
+    totalLength += length;
+    maxLength = Math.max(maxLength, length);
+
+    if (best == null || length < getMinLength()) {
+      best = plan;
+      System.out.printf(
+          "################## NEW BEST RUN FOUND ################## length: %d, seed = %d%n",
+          length, plan.getSeed());
+    } else if (length == getMinLength() && plan.getSeed() < best.getSeed()) {
+      best = plan;
+    }
+  }
+
+  /** @return the shortest plan, or null if there are none */
+  synchronized FlightPlan getBest() {
+    return best;
+  }
+
+  /** @return the number of plans */
+  synchronized int getCount() {
+    return count;
+  }
+
+  /** @return the length of the shortest plan, or Integer.MAX_VALUE if there are none */
+  synchronized int getMinLength() {
+    return best == null ? Integer.MAX_VALUE : best.getMoves().size();
+  }
+
+  /** @return the mean length of the plans, or NaN if there are none */
+  synchronized double getMeanLength() {
+    return count == 0 ? Double.NaN : (double) totalLength / count;
+  }
+
+  /** @return the length of the longest plan, or Integer.MIN_VALUE if there are none */
+  synchronized int getMaxLength() {
+    return maxLength;
+  }
+}
@@ -3,20 +3,20 @@ package uk.ac.ed.inf.aqmaps.flightplanning;
 import uk.ac.ed.inf.aqmaps.Move;
 import uk.ac.ed.inf.aqmaps.W3W;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.noflyzone.ObstaclePathfinder;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibilityCache.CallSite;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibleVertices;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
- * Handles the creation of a flight plan for the drone. Uses JGraphT's TwoOptHeuristicTSP algorithm
- * as part of process, which was the best performing of JGraphT's Hamiltonian Cycle algorithms,
- * however this could be changed easily.
+ * Handles the creation of a flight plan for the drone. Uses a 2-opt heuristic based on JGraphT's
+ * TwoOptHeuristicTSP algorithm as part of process, which was the best performing of JGraphT's
+ * Hamiltonian Cycle algorithms, or else Lin-Kernighan or simulated annealing, see {@link
+ * TourMethod}.
  */
 public class FlightPlanner {
   /**
@@ -32,32 +32,64 @@ public class FlightPlanner {
    * shortest. Can be changed to trade off for speed and efficacy. Increasing it has diminishing
    * returns.
    */
-  private static final int ITERATIONS = 40;
+  private static final int ITERATIONS = 30;
   /**
    * When the time limit is on, this is the maximum possible number of iterations. If this many are
    * run before the time is up, it stops and does not wait for the timer. The current value is high
    * enough for this to never happen.
    */
   private static final int MAX_ITERATIONS = 50000;
+  /**
+   * When the time limit is off, this is the number of simulated annealing chains to run, one seed
+   * each. It does not depend on the number of workers, so the same seed always gives the same plan.
+   */
+  private static final int SIMULATED_ANNEALING_CHAINS = 4;
+  /**
+   * The greatest number of seeds which a worker takes at once. Fewer are taken when there are few
+   * iterations per worker, so that each worker gets at least {@value MIN_BATCHES_PER_WORKER}
+   * batches and they finish at about the same time.
+   */
+  private static final int MAX_SEED_BATCH = 8;
+  /** See {@link #MAX_SEED_BATCH} */
+  private static final int MIN_BATCHES_PER_WORKER = 4;
+  /**
+   * The number of legs to keep in the {@link LegCache} by default, which is about 30 MB. A run with
+   * no time limit uses around 100,000, and a time limited run around 100,000 more each second.
+   */
+  public static final int DEFAULT_LEG_CACHE_CAPACITY = 1 << 18;
   /** See {@link #cutCorner(Coords, Coords, Coords)} This value performed the best in testing. */
   private static final double CORNER_CUT_RADIUS_FRACTION = 0.634;
 
   private final Obstacles obstacles;
 
+  /** The default pathfinder of the obstacles, which the visible vertices below belong to */
+  private final ObstaclePathfinder obstaclePathfinder;
+
   /** A map from coordinates to the W3W of a sensor at that location. */
   private final Map<Coords, W3W> sensorCoordsW3WMap;
 
+  /**
+   * The obstacle graph vertices visible from each sensor and from the start position, so that the
+   * many path queries which start or end at one of them do not need to check line of sight to every
+   * vertex again. The start position is added when planning starts.
+   */
+  private final Map<Coords, VisibleVertices> visibleVertices = new ConcurrentHashMap<>();
+
   /**
    * Caches the number of moves and end position of navigating from a point to a target, with a
    * particular following target. Used in {@link #computeFlightLength}. This does not cache the
    * actual moves that would be needed to use the cache in {@link #constructFlightAlongTour} since
    * the memory use would be too high and almost all of the moves stored would not be used since we
    * only need to construct the tour once. Using a cache in testing resulted in a speedup of 60-70%.
-   * Since {@link #computeFlightLength} will be run in parallel, we use a ConcurrentHashMap to
-   * prevent blocking, which was about 60% faster than a Hashtable in testing (on 6 cores/12
-   * threads).
+   * It is bounded, so that long time limited runs do not fill the heap, see {@link LegCache}.
    */
-  private final Map<FlightCacheKey, FlightCacheValue> cache = new ConcurrentHashMap<>();
+  private final LegCache cache;
+
+  /**
+   * Each thread reuses one WaypointNavigation for every leg of a batch of seeds, so that its visited
+   * set is cleared rather than allocated again for each one. It is removed at the end of each batch.
+   */
+  private final ThreadLocal<WaypointNavigation> waypointNavigations;
 
   /**
    * Holds the next random seed to be used when creating the next plan. This is used so when the
@@ -69,7 +101,9 @@ public class FlightPlanner {
    *
    * <p>Using this allows to say with confidence that if the algorithm produced a flight plan in n
    * iterations, that flight plan used a random seed between the command line input seed and
-   * (seed+n), and you would be able to generate the same flight plan again.
+   * (seed+n), and you would be able to generate the same flight plan again. The workers take seeds
+   * in batches of up to {@value MAX_SEED_BATCH}, so when the time runs out partway through the
+   * batches this can be up to that many seeds per worker further on.
    */
   private final AtomicInteger atomicSeedCounter;
 
@@ -79,7 +113,15 @@ public class FlightPlanner {
    */
   private final boolean timeLimitOn;
 
-  private final AtomicBoolean timerStarted;
+  /** The way to find the order to visit the sensors in */
+  private final TourMethod tourMethod;
+
+  /** The worker threads which flight planning runs on */
+  private final PlanningExecutor executor;
+
+  /** The number of flight plans made by the last call of {@link #createBestFlightPlan} */
+  private volatile int lastIterationCount;
+
   /**
    * The approximate maximum run time for flight planning in nanoseconds (to work with
    * System.nanoTime()). The algorithm will repeat as many times as possible with different random
@@ -88,9 +130,7 @@ public class FlightPlanner {
    */
   private long timeLimitNanos;
   /** The System.nanoTime() at which we started running flight planning algorithms. */
-  private double startTime;
-
-  private AtomicInteger minLen = new AtomicInteger(150);
+  private long startTime;
 
   /**
    * Construct a flight planner with the given time limit in seconds. If the time limit is not
@@ -104,13 +144,97 @@ public class FlightPlanner {
    */
   public FlightPlanner(
       Obstacles obstacles, List<W3W> sensorW3Ws, int randomSeed, double timeLimit) {
+    this(obstacles, sensorW3Ws, randomSeed, timeLimit, TourMethod.TWO_OPT);
+  }
+
+  /**
+   * Construct a flight planner with the given time limit in seconds, choosing the way to find the
+   * order to visit the sensors in. If the time limit is not greater than 0, turns it off and uses a
+   * maximum number of iterations instead.
+   *
+   * @param obstacles the Obstacles containing the no-fly zones
+   * @param sensorW3Ws the W3W locations of the sensors
+   * @param randomSeed the initial random seed to use
+   * @param timeLimit the time limit for the algorithm in seconds. If it is equal to 0 then disables
+   *     the time limit and runs for a fixed number of iterations.
+   * @param tourMethod the way to find the order to visit the sensors in
+   */
+  public FlightPlanner(
+      Obstacles obstacles,
+      List<W3W> sensorW3Ws,
+      int randomSeed,
+      double timeLimit,
+      TourMethod tourMethod) {
+    this(obstacles, sensorW3Ws, randomSeed, timeLimit, tourMethod, PlanningExecutor.getDefault());
+  }
+
+  /**
+   * Construct a flight planner with the given time limit in seconds, choosing the way to find the
+   * order to visit the sensors in and the worker threads to run on. If the time limit is not
+   * greater than 0, turns it off and uses a maximum number of iterations instead.
+   *
+   * @param obstacles the Obstacles containing the no-fly zones
+   * @param sensorW3Ws the W3W locations of the sensors
+   * @param randomSeed the initial random seed to use
+   * @param timeLimit the time limit for the algorithm in seconds. If it is equal to 0 then disables
+   *     the time limit and runs for a fixed number of iterations.
+   * @param tourMethod the way to find the order to visit the sensors in
+   * @param executor the worker threads to run flight planning on
+   */
+  public FlightPlanner(
+      Obstacles obstacles,
+      List<W3W> sensorW3Ws,
+      int randomSeed,
+      double timeLimit,
+      TourMethod tourMethod,
+      PlanningExecutor executor) {
+    this(
+        obstacles,
+        sensorW3Ws,
+        randomSeed,
+        timeLimit,
+        tourMethod,
+        executor,
+        DEFAULT_LEG_CACHE_CAPACITY);
+  }
+
+  /**
+   * Construct a flight planner with the given time limit in seconds, choosing the way to find the
+   * order to visit the sensors in and the worker threads to run on. If the time limit is not
+   * greater than 0, turns it off and uses a maximum number of iterations instead.
+   *
+   * @param obstacles the Obstacles containing the no-fly zones
+   * @param sensorW3Ws the W3W locations of the sensors
+   * @param randomSeed the initial random seed to use
+   * @param timeLimit the time limit for the algorithm in seconds. If it is equal to 0 then disables
+   *     the time limit and runs for a fixed number of iterations.
+   * @param tourMethod the way to find the order to visit the sensors in
+   * @param executor the worker threads to run flight planning on
+   * @param legCacheCapacity the maximum number of legs to keep in the {@link LegCache}
+   */
+  public FlightPlanner(
+      Obstacles obstacles,
+      List<W3W> sensorW3Ws,
+      int randomSeed,
+      double timeLimit,
+      TourMethod tourMethod,
+      PlanningExecutor executor,
+      int legCacheCapacity) {
     this.obstacles = obstacles;
+    this.cache = new LegCache(legCacheCapacity);
+    this.tourMethod = tourMethod;
+    this.executor = executor;
+    this.obstaclePathfinder = obstacles.getObstaclePathfinder(executor);
+    this.waypointNavigations = ThreadLocal.withInitial(() -> new WaypointNavigation(obstacles));
     // Prepare the map from sensor coords to their W3Ws
     sensorCoordsW3WMap = new HashMap<>();
     sensorW3Ws.forEach(w3w -> sensorCoordsW3WMap.put(w3w.getCoordinates(), w3w));
+    sensorCoordsW3WMap
+        .keySet()
+        .forEach(
+            coords -> visibleVertices.put(coords, obstaclePathfinder.getVisibleVertices(coords)));
     // Set the first random seed to the user-provided seed in the settings
     this.atomicSeedCounter = new AtomicInteger(randomSeed);
-    this.timerStarted = new AtomicBoolean(false);
 
     if (timeLimit == 0) {
       // Run with no time limit
@@ -123,56 +247,81 @@ public class FlightPlanner {
 
   /**
    * Create a flight plan for the drone which visits all sensors and returns to the start. Runs the
-   * algorithm a large number of times with different random seeds, in parallel, and chooses the
-   * shortest.
+   * algorithm a large number of times with different random seeds, in parallel on the workers of
+   * the executor, and chooses the shortest. With simulated annealing and a time limit it instead
+   * runs one chain per worker, each for the whole time limit, and without a time limit it runs
+   * {@value SIMULATED_ANNEALING_CHAINS} chains of a fixed length.
    *
    * @param startPosition the starting position of the drone
    * @return a list of Moves representing the flight plan
+   * @throws IllegalStateException if no flight plan could be found
    */
   public List<Move> createBestFlightPlan(Coords startPosition) {
+    visibleVertices.computeIfAbsent(startPosition, obstaclePathfinder::getVisibleVertices);
     var sensorGraph =
-        SensorGraph.createWithStartLocation(startPosition, sensorCoordsW3WMap.keySet(), obstacles);
-
-    System.out.printf(
-        "Starting flight planning with %d thread(s)...%n",
-        ForkJoinPool.getCommonPoolParallelism() + 1);
-
-    // Run flight planning either ITERATIONS or MAX_ITERATIONS times in a parallel stream
-    // Note that if time limit is on all results after the time has ended will be null
-    var flightPlans =
-        IntStream.range(0, timeLimitOn ? MAX_ITERATIONS : ITERATIONS)
-            .parallel() // Run in parallel to decrease run time
-            .mapToObj(i -> createPlan(startPosition, sensorGraph))
-            .filter(Objects::nonNull) // Once max runtime has elapsed they will be null so filter
-            // Sort to ensure that the minimum we choose is the same no matter the order
-            .sorted(Comparator.comparing(FlightPlan::getSeed))
-            .collect(Collectors.toList());
-
-    System.out.printf("Number of flight planning iterations completed: %d%n", flightPlans.size());
-
-    // Get the shortest, and also the longest for curiosity
-    int minLength = Integer.MAX_VALUE;
-    int maxLength = Integer.MIN_VALUE;
-    FlightPlan bestPlan = null;
-    for (var plan : flightPlans) {
-      var length = plan.getMoves().size();
-      if (length < minLength) {
-        minLength = length;
-        bestPlan = plan;
-      }
-      if (length > maxLength) {
-        maxLength = length;
-      }
+        SensorGraph.createWithStartLocation(
+            startPosition, sensorCoordsW3WMap.keySet(), obstacles, visibleVertices, executor);
+
+    var threads = executor.getWorkers();
+    System.out.printf("Starting flight planning with %d thread(s)...%n", threads);
+
+    // Run flight planning either ITERATIONS or MAX_ITERATIONS times, or until the time is up
+    var iterations = timeLimitOn ? MAX_ITERATIONS : ITERATIONS;
+    if (tourMethod == TourMethod.SIMULATED_ANNEALING) {
+      // With a time limit each annealing chain runs until the deadline, so only run one on each
+      // thread. Without one the number of chains is fixed, so the result is reproducible.
+      iterations = timeLimitOn ? threads : SIMULATED_ANNEALING_CHAINS;
     }
+    var firstSeed = atomicSeedCounter.get();
+    var endSeed = firstSeed + iterations;
+    var batchSize =
+        Math.max(1, Math.min(MAX_SEED_BATCH, iterations / (threads * MIN_BATCHES_PER_WORKER)));
+    var reducer = new FlightPlanReducer();
+    startTime = System.nanoTime();
+    var deadline = timeLimitOn ? Deadline.at(startTime + timeLimitNanos) : Deadline.NONE;
+
+    // The workers keep taking the next batch of seeds until they run out or the time is up. Only
+    // the best plan so far is kept, and ties go to the lowest seed so the order the plans finish in
+    // does not change the result.
+    executor.runBatches(
+        () -> {
+          var batchStart = atomicSeedCounter.getAndAdd(batchSize);
+          if (batchStart >= endSeed) {
+            return false;
+          }
+          var batchEnd = Math.min(batchStart + batchSize, endSeed);
+          try {
+            for (int seed = batchStart; seed < batchEnd; seed++) {
+              var plan = createPlan(startPosition, sensorGraph, seed, firstSeed, deadline);
+              if (plan == null) {
+                return false;
+              }
+              reducer.accept(plan);
+            }
+            return true;
+          } finally {
+            // The workers may be shared with other planners, so do not leave this planner's
+            // navigation on them once the batch is done
+            waypointNavigations.remove();
+          }
+        });
+    lastIterationCount = reducer.getCount();
+
+    System.out.printf("Number of flight planning iterations completed: %d%n", reducer.getCount());
     System.out.printf(
         "Flight path lengths: min = %d, mean = %.3f, max = %d%n",
-        minLength,
-        flightPlans.stream().mapToDouble(f -> f.getMoves().size()).average().orElse(Double.NaN),
-        maxLength);
-
+        reducer.getMinLength(), reducer.getMeanLength(), reducer.getMaxLength());
+    System.out.printf(
+        "Leg cache: %.1f%% hit rate, %d of %d legs (about %.1f MB), %d evicted%n",
+        cache.getHitRate() * 100,
+        cache.getSize(),
+        cache.getCapacity(),
+        cache.getEstimatedBytes() / 1e6,
+        cache.getEvictions());
+
+    var bestPlan = reducer.getBest();
     if (bestPlan == null) {
-      System.out.println("Error: valid flight plan could not be found");
-      System.exit(1);
+      throw new IllegalStateException("valid flight plan could not be found");
     }
     System.out.printf("The shortest flight plan which was output used random seed %d%n", bestPlan.getSeed());
 
@@ -180,44 +329,58 @@ public class FlightPlanner {
     return bestPlan.getMovesWithLimit();
   }
 
+  /** @return the cache of the legs of flights, for its hit, miss and eviction counts */
+  public LegCache getLegCache() {
+    return cache;
+  }
+
+  /** @return the number of flight plans made by the last call of {@link #createBestFlightPlan} */
+  public int getLastIterationCount() {
+    return lastIterationCount;
+  }
+
   /**
    * Creates a flight plan for the drone which visits all sensors and returns to the start. First
-   * uses an two stage 2-opt heuristic (see {@link EnhancedTwoOptTSP}) to generate a tour, then
-   * constructs a flight plan for the drone along the route.
+   * uses an two stage 2-opt heuristic (see {@link EnhancedTwoOptTSP}), Lin-Kernighan (see {@link
+   * LinKernighanTSP}) or simulated annealing (see {@link SimulatedAnnealingTSP}) to generate a tour,
+   * then constructs a flight plan for the drone along the route.
+   *
+   * <p>If the deadline passes partway through, the plan is given up on, other than the plan for the
+   * first seed and the plans from simulated annealing. Those stop improving their tours at the
+   * deadline but always finish building their flights, so that there is at least one plan, and one
+   * from each annealing chain.
    *
    * @param startPosition the starting position of the drone
    * @param sensorGraph the graph containing all of the sensors and distances
-   * @return a list of Moves representing the flight plan
+   * @param seed the random seed to use
+   * @param firstSeed the first seed of this run of flight planning
+   * @param deadline the deadline of this run of flight planning
+   * @return a list of Moves representing the flight plan, or null if the time is up
    */
-  private FlightPlan createPlan(Coords startPosition, SensorGraph sensorGraph) {
-    if (timerStarted.compareAndSet(false, true)) {
-      // The first time something runs it starts the timer
-      // This is done here to ensure that at least 1 iteration is run no matter what
-      startTime = System.nanoTime();
-    } else if (timeLimitOn && (System.nanoTime() - startTime) > timeLimitNanos) {
-      // If more than the max runtime has elapsed, stop the algorithm by returning null
+  private FlightPlan createPlan(
+      Coords startPosition, SensorGraph sensorGraph, int seed, int firstSeed, Deadline deadline) {
+    // If more than the max runtime has elapsed, stop the algorithm by returning null
+    // The first seed always runs to ensure that at least 1 iteration is run no matter what
+    if (seed > firstSeed && deadline.hasPassed()) {
       return null;
     }
 
-    var seed = atomicSeedCounter.getAndIncrement(); // Get the next random seed
-
-    // Get a short tour which visits
-    var twoOpt = new EnhancedTwoOptTSP(TWO_OPT_PASSES, seed, startPosition, this);
-    var graphPath = twoOpt.getTour(sensorGraph);
-
-    var tour = graphPath.getVertexList();
-
-    tour.remove(0); // The first and last elements are duplicates, so remove the duplicate
-
-    // Rotate the list backwards so the starting position is at the front
-    Collections.rotate(tour, -tour.indexOf(startPosition));
-    tour.add(tour.get(0)); // Put the starting position as the ending position as well
-    var moves = constructFlightAlongTour(tour);
-    if (moves.size() < minLen.get()) {
-      minLen.getAndSet(moves.size());
-      System.out.printf("################## NEW BEST RUN FOUND ################## length: %d, seed = %d%n", moves.size(), seed);
+    // Get a short tour which visits every sensor, starting and ending at the starting position
+    List<Coords> tour;
+    if (tourMethod == TourMethod.LIN_KERNIGHAN) {
+      tour = new LinKernighanTSP(seed, startPosition, this, deadline).getTour(sensorGraph);
+    } else if (tourMethod == TourMethod.SIMULATED_ANNEALING) {
+      tour = new SimulatedAnnealingTSP(seed, startPosition, this, deadline).getTour(sensorGraph);
+    } else {
+      var twoOpt = new EnhancedTwoOptTSP(TWO_OPT_PASSES, seed, startPosition, this, deadline);
+      tour = twoOpt.getTour(sensorGraph);
     }
-    return new FlightPlan(seed, moves);
+    // Each annealing chain runs until the deadline and there is only one per worker, so they all
+    // finish building their flights, or only the chains whose flights happened to be quick to
+    // build would give a plan
+    var finishFlight = seed == firstSeed || tourMethod == TourMethod.SIMULATED_ANNEALING;
+    var moves = constructFlightAlongTour(tour, finishFlight ? Deadline.NONE : deadline);
+    return moves == null ? null : new FlightPlan(seed, moves);
   }
 
   /**
@@ -227,12 +390,109 @@ public class FlightPlanner {
    * @return the number of moves in the flight plan
    */
   public int computeFlightLength(List<Coords> tour) {
-    var obstaclePathfinder = obstacles.getObstaclePathfinder();
-    var length = 0;
-    var currentPosition = tour.get(0);
+    return computeFlightLength(tour, Deadline.NONE);
+  }
+
+  /**
+   * Computes the length of a flight plan which follows the given sensor coordinate tour, giving up
+   * if the deadline passes.
+   *
+   * @param tour a list of Coords specifying the order to visit the sensors
+   * @param deadline the deadline to give up at
+   * @return the number of moves in the flight plan, or Integer.MAX_VALUE if the deadline passed
+   */
+  public int computeFlightLength(List<Coords> tour, Deadline deadline) {
+    return computeFlightLength(tour, 1, 0, tour.get(0), Integer.MAX_VALUE, null, deadline);
+  }
+
+  /**
+   * Computes the length of a flight plan which follows the given sensor coordinate tour, and records
+   * the length and position after each leg so that flights along similar tours can reuse them with
+   * {@link #computeFlightLength(List, FlightPrefix, int, int, Deadline)}.
+   *
+   * @param tour a list of Coords specifying the order to visit the sensors
+   * @param prefix where to record the legs of the flight, which is cleared first
+   * @param deadline the deadline to give up at
+   * @return the number of moves in the flight plan, or Integer.MAX_VALUE if the deadline passed
+   */
+  int computeFlightLength(List<Coords> tour, FlightPrefix prefix, Deadline deadline) {
+    prefix.clear();
+    prefix.add(0, tour.get(0));
+    return computeFlightLength(tour, 1, 0, tour.get(0), Integer.MAX_VALUE, prefix, deadline);
+  }
+
+  /**
+   * Computes the length of a flight plan which follows the given sensor coordinate tour, where the
+   * tour is the same as the recorded tour up to but not including the given index. The legs before
+   * that index which do not depend on the points after it are taken from the record instead of
+   * being computed again, since a leg only depends on the position it starts from, its target, and
+   * the next target after that. The computation also stops once the length reaches the bound, or
+   * once it is certain to, see {@link #legLowerBound(List, int)}.
+   *
+   * @param tour a list of Coords specifying the order to visit the sensors
+   * @param prefix the recorded flight along a tour which shares the first points with this one
+   * @param firstDifference the index of the first point in the tour which is not in the record
+   * @param bound the length at which to give up
+   * @param deadline the deadline to give up at
+   * @return the number of moves in the flight plan, or a number which is at least the bound if that
+   *     is smaller, or Integer.MAX_VALUE if the deadline passed
+   */
+  int computeFlightLength(
+      List<Coords> tour, FlightPrefix prefix, int firstDifference, int bound, Deadline deadline) {
+    // The leg to firstDifference - 1 depends on the point at firstDifference through corner cutting
+    int firstLeg = Math.max(1, Math.min(firstDifference - 1, prefix.size()));
+    return computeFlightLength(
+        tour,
+        firstLeg,
+        prefix.getLength(firstLeg - 1),
+        prefix.getPosition(firstLeg - 1),
+        bound,
+        null,
+        deadline);
+  }
+
+  /**
+   * Computes the length of a flight plan which follows the given sensor coordinate tour, starting
+   * partway through.
+   *
+   * @param tour a list of Coords specifying the order to visit the sensors
+   * @param firstLeg the index of the target of the first leg to compute
+   * @param startLength the number of moves in the flight before the first leg
+   * @param startPosition the position of the drone before the first leg
+   * @param bound the length at which to give up
+   * @param prefix where to record the legs of the flight, or null to not record them
+   * @param deadline the deadline to give up at, which is checked before planning each leg that is
+   *     not in the cache
+   * @return the number of moves in the flight plan, or a number which is at least the bound if that
+   *     is smaller, or Integer.MAX_VALUE if the deadline passed
+   */
+  private int computeFlightLength(
+      List<Coords> tour,
+      int firstLeg,
+      int startLength,
+      Coords startPosition,
+      int bound,
+      FlightPrefix prefix,
+      Deadline deadline) {
+    var length = startLength;
+    var currentPosition = startPosition;
+
+    // The fewest moves that the legs which are left could take
+    var remaining = 0;
+    if (bound != Integer.MAX_VALUE) {
+      for (int i = firstLeg; i < tour.size(); i++) {
+        remaining += legLowerBound(tour, i);
+      }
+    }
 
     // Plan the flight from each sensor to the next
-    for (int i = 1; i < tour.size(); i++) {
+    for (int i = firstLeg; i < tour.size(); i++) {
+      if (length + remaining >= bound) {
+        return length + remaining;
+      }
+      if (bound != Integer.MAX_VALUE) {
+        remaining -= legLowerBound(tour, i);
+      }
       var currentTarget = tour.get(i);
 
       // Check the cache to see if we have already made a similar computation, and if so use the
@@ -241,14 +501,19 @@ public class FlightPlanner {
           new FlightCacheKey(
               currentPosition, currentTarget, i < tour.size() - 1 ? tour.get(i + 1) : null);
 
-      // It is faster to get and perform null check than to use cache.containsKey() first
-      // When profiling with 120 iterations this saved a million calls and 3% runtime
       var cacheValue = cache.get(cacheKey);
       if (cacheValue != null) {
         length += cacheValue.getLength();
         currentPosition = cacheValue.getEndPosition();
+        if (prefix != null) {
+          prefix.add(length, currentPosition);
+        }
         continue;
       }
+      // Cache misses are where the time goes, so this is where the deadline is checked
+      if (deadline.hasPassed()) {
+        return Integer.MAX_VALUE;
+      }
       W3W targetSensorOrNull = sensorCoordsW3WMap.get(currentTarget);
 
       // If the target is not the end, shorten the route by using the sensor range to cut the corner
@@ -257,16 +522,26 @@ public class FlightPlanner {
         currentTarget = cutCorner(currentPosition, currentTarget, nextTarget);
       }
       // Compute a list of waypoints from the current position to the target, avoiding obstacles
-      var waypoints = obstaclePathfinder.getPathBetweenPoints(currentPosition, currentTarget);
+      var waypoints =
+          obstaclePathfinder.getPathBetweenPoints(
+              currentPosition,
+              currentTarget,
+              visibleVertices.get(currentPosition),
+              visibleVertices.get(currentTarget));
+      if (waypoints == null) {
+        // The target cannot be reached around the obstacles, so there is no flight along this tour
+        return Integer.MAX_VALUE;
+      }
 
       // Compute a list of Moves from the current position to the target
-      var waypointNavigation = new WaypointNavigation(obstacles);
+      var waypointNavigation = waypointNavigations.get();
       var movesToTarget =
-          waypointNavigation.navigateToLocation(currentPosition, waypoints, targetSensorOrNull);
+          waypointNavigation.navigateToLocation(
+              currentPosition, waypoints, targetSensorOrNull, deadline);
 
       if (movesToTarget == null) {
-        // In the exceptional case that there is no valid flightpath, we give up here
-        // This never happened in testing
+        // In the exceptional case that there is no valid flightpath, or if the deadline passed
+        // partway through, we give up here. Neither is cached
         return Integer.MAX_VALUE;
       }
       // Update the current position to the end of the sequence of moves
@@ -274,25 +549,51 @@ public class FlightPlanner {
       currentPosition = newPosition;
 
       length += movesToTarget.size();
+      if (prefix != null) {
+        prefix.add(length, newPosition);
+      }
 
       cache.put(cacheKey, new FlightCacheValue(movesToTarget.size(), newPosition));
     }
     return length;
   }
 
+  /**
+   * Finds a lower bound on the number of moves in a leg of a flight, no matter where the drone
+   * starts and ends in the ranges of the points. The drone always makes at least one move, ends each
+   * leg within {@value WaypointNavigation#SENSOR_RANGE} of a sensor or within {@value
+   * WaypointNavigation#END_POSITION_RANGE} of the end, and cannot go further than the straight line
+   * distance in each move.
+   *
+   * @param tour a list of Coords specifying the order to visit the sensors
+   * @param i the index of the target of the leg
+   * @return the lower bound
+   */
+  private int legLowerBound(List<Coords> tour, int i) {
+    var endRange =
+        i < tour.size() - 1 ? WaypointNavigation.SENSOR_RANGE : WaypointNavigation.END_POSITION_RANGE;
+    var distance =
+        tour.get(i - 1).distance(tour.get(i)) - WaypointNavigation.SENSOR_RANGE - endRange;
+    return Math.max(1, (int) Math.ceil(distance / WaypointNavigation.MOVE_LENGTH));
+  }
+
   /**
    * Create a flight plan for the drone along the given sensor tour.
    *
    * @param tour a list of Coords specifying the order to visit the sensors
-   * @return a list of Moves representing the flight plan
+   * @param deadline the deadline to give up at
+   * @return a list of Moves representing the flight plan, or null if the deadline passed
    */
-  private List<Move> constructFlightAlongTour(List<Coords> tour) {
-    var obstaclePathfinder = obstacles.getObstaclePathfinder();
+  private List<Move> constructFlightAlongTour(List<Coords> tour, Deadline deadline) {
     var moves = new ArrayList<Move>();
     var currentPosition = tour.get(0);
 
     // Plan the flight from each sensor to the next
     for (int i = 1; i < tour.size(); i++) {
+      // A leg which is quick to navigate never reaches the checks inside the navigation
+      if (deadline.hasPassed()) {
+        return null;
+      }
       var currentTarget = tour.get(i);
       W3W targetSensorOrNull = sensorCoordsW3WMap.get(currentTarget);
 
@@ -302,14 +603,27 @@ public class FlightPlanner {
         currentTarget = cutCorner(currentPosition, currentTarget, nextTarget);
       }
       // Compute a list of waypoints from the current position to the target, avoiding obstacles
-      var waypoints = obstaclePathfinder.getPathBetweenPoints(currentPosition, currentTarget);
+      var waypoints =
+          obstaclePathfinder.getPathBetweenPoints(
+              currentPosition,
+              currentTarget,
+              visibleVertices.get(currentPosition),
+              visibleVertices.get(currentTarget));
+      if (waypoints == null) {
+        // The target cannot be reached around the obstacles, so we give up here as below
+        return moves;
+      }
 
       // Compute a list of Moves from the current position to the target
-      var waypointNavigation = new WaypointNavigation(obstacles);
+      var waypointNavigation = waypointNavigations.get();
       var movesToTarget =
-          waypointNavigation.navigateToLocation(currentPosition, waypoints, targetSensorOrNull);
+          waypointNavigation.navigateToLocation(
+              currentPosition, waypoints, targetSensorOrNull, deadline);
 
       if (movesToTarget == null) {
+        if (deadline.hasPassed()) {
+          return null;
+        }
         // In the exceptional case that there is no valid flightpath, we give up here
         // This never happened in testing
         return moves;
@@ -351,8 +665,8 @@ public class FlightPlanner {
       // worth it if the new route now needs to avoid an obstacle. The move may also have put the
       // point inside an obstacle.
       if (currPos.distance(candidate) + candidate.distance(nextTarget) < minDistance
-          && !obstacles.lineCollision(currPos, candidate)
-          && !obstacles.lineCollision(candidate, nextTarget)) {
+          && !obstacles.lineCollision(currPos, candidate, CallSite.CORNER_CUTTING)
+          && !obstacles.lineCollision(candidate, nextTarget, CallSite.CORNER_CUTTING)) {
         target = candidate;
       }
     }
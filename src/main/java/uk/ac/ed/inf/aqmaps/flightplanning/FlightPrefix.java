@@ -0,0 +1,62 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+/**
+ * Holds the number of moves and position of the drone after each leg of a flight along a tour, as
+ * found by {@link FlightPlanner#computeFlightLength(java.util.List, FlightPrefix)}. A flight along
+ * another tour which has the same first few sensors can then start from partway through instead of
+ * from the start.
+ */
+class FlightPrefix {
+  /** The number of moves in the flight up to the end of each leg, with 0 for the start */
+  private final int[] lengths;
+  /** The position of the drone at the end of each leg, with the start position first */
+  private final Coords[] positions;
+  /** The number of legs which have been recorded, counting the start as one */
+  private int size;
+
+  /** @param tourSize the number of points in the tours, including the start at both ends */
+  FlightPrefix(int tourSize) {
+    lengths = new int[tourSize];
+    positions = new Coords[tourSize];
+  }
+
+  /** Forgets the recorded legs so that a new tour can be recorded. */
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Records the next leg of the flight.
+   *
+   * @param length the number of moves in the flight up to the end of the leg
+   * @param position the position of the drone at the end of the leg
+   */
+  void add(int length, Coords position) {
+    lengths[size] = length;
+    positions[size] = position;
+    size++;
+  }
+
+  /** @return the number of legs which have been recorded, counting the start as one */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param i the index of a point in the tour
+   * @return the number of moves in the flight until reaching that point
+   */
+  int getLength(int i) {
+    return lengths[i];
+  }
+
+  /**
+   * @param i the index of a point in the tour
+   * @return the position of the drone after reaching that point
+   */
+  Coords getPosition(int i) {
+    return positions[i];
+  }
+}
@@ -0,0 +1,182 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the number of moves and end position of each leg of a flight, used by {@link
+ * FlightPlanner#computeFlightLength}. Without a bound it grows by around a hundred thousand legs
+ * per second of time limited planning, since the start positions of the legs are continuous and
+ * rarely repeat exactly.
+ *
+ * <p>The cache is set associative: each key hashes to a set of {@value WAYS} slots, and evicts
+ * within its set using the CLOCK algorithm. Each entry has a referenced bit which is set when it
+ * is read. To make room, the set's hand sweeps over the slots, clearing referenced bits, and
+ * replaces the first entry whose bit was already clear. So legs which are used again survive, and
+ * legs from tours which were tried once and given up on are evicted first. The slots hold entries
+ * in an AtomicReferenceArray, so any number of threads can use the cache at once without locking.
+ * Two threads which plan the same leg at once may both add it, which only wastes a slot until one
+ * of them is evicted.
+ */
+public class LegCache {
+  /** The number of slots in each set */
+  private static final int WAYS = 4;
+  /** The estimated size of a slot of the array, which is a compressed reference */
+  private static final int SLOT_BYTES = 4;
+  /**
+   * The estimated size of a cached leg with compressed references: the Entry (24 bytes), its
+   * FlightCacheKey (32), FlightCacheValue (24) and the Coords of the end position (32).
+   */
+  private static final int ENTRY_BYTES = 112;
+
+  private final AtomicReferenceArray<Entry> entries;
+  /** The position of the CLOCK hand in each set */
+  private final byte[] hands;
+  /** One less than the number of sets, which is a power of 2 */
+  private final int setMask;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder size = new LongAdder();
+
+  /**
+   * @param capacity the maximum number of legs to hold. It is rounded up to a power of 2 which is
+   *     at least {@value WAYS}.
+   */
+  LegCache(int capacity) {
+    int sets = capacity <= WAYS ? 1 : Integer.highestOneBit((capacity - 1) / WAYS) << 1;
+    entries = new AtomicReferenceArray<>(sets * WAYS);
+    hands = new byte[sets];
+    setMask = sets - 1;
+  }
+
+  /**
+   * @param key the start position and targets of the leg
+   * @return the cached leg, or null if it is not in the cache
+   */
+  FlightCacheValue get(FlightCacheKey key) {
+    int first = setOf(key) * WAYS;
+    for (int i = first; i < first + WAYS; i++) {
+      var entry = entries.get(i);
+      if (entry != null && entry.key.equals(key)) {
+        // Only write the bit when it changes, so that hot entries are not written on every read
+        if (!entry.referenced) {
+          entry.referenced = true;
+        }
+        hits.increment();
+        return entry.value;
+      }
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Adds a leg to the cache, evicting another leg in its set if the set is full.
+   *
+   * @param key the start position and targets of the leg
+   * @param value the number of moves and end position of the leg
+   */
+  void put(FlightCacheKey key, FlightCacheValue value) {
+    int set = setOf(key);
+    int first = set * WAYS;
+    var newEntry = new Entry(key, value);
+    for (int i = first; i < first + WAYS; i++) {
+      var entry = entries.get(i);
+      if (entry == null) {
+        if (entries.compareAndSet(i, null, newEntry)) {
+          size.increment();
+          return;
+        }
+      } else if (entry.key.equals(key)) {
+        // Another thread has just planned the same leg
+        return;
+      }
+    }
+
+    // The set is full, so sweep the hand until it finds an entry which has not been used since
+    // the last sweep. This takes at most WAYS + 1 steps, since the sweep clears the bits it passes,
+    // unless another thread changes the slot first, in which case it is looked at again.
+    int hand = hands[set];
+    while (true) {
+      var entry = entries.get(first + hand);
+      if (entry != null && entry.referenced) {
+        entry.referenced = false;
+        hand = (hand + 1) % WAYS;
+      } else if (entries.compareAndSet(first + hand, entry, newEntry)) {
+        hands[set] = (byte) ((hand + 1) % WAYS);
+        if (entry != null) {
+          evictions.increment();
+        } else {
+          size.increment();
+        }
+        return;
+      }
+    }
+  }
+
+  /** @return the number of lookups which found their leg in the cache */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /** @return the number of lookups which did not find their leg in the cache */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /** @return the fraction of lookups which found their leg, or NaN if there have been none */
+  public double getHitRate() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? Double.NaN : (double) hits / total;
+  }
+
+  /** @return the number of legs which have been evicted to make room for others */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /** @return the number of legs in the cache */
+  public long getSize() {
+    return size.sum();
+  }
+
+  /** @return the maximum number of legs the cache can hold */
+  public int getCapacity() {
+    return entries.length();
+  }
+
+  /** @return an estimate of the heap used by the cache in bytes, assuming compressed references */
+  public long getEstimatedBytes() {
+    return (long) getCapacity() * SLOT_BYTES + getSize() * ENTRY_BYTES;
+  }
+
+  /** Mixes the bits of the key's hash, using the finaliser from MurmurHash3. */
+  private int setOf(FlightCacheKey key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h & setMask;
+  }
+
+  /** A cached leg, with the referenced bit of the CLOCK algorithm. */
+  private static class Entry {
+    private final FlightCacheKey key;
+    private final FlightCacheValue value;
+    /**
+     * Set when the entry is read and cleared by the hand. It is not volatile, since a lost update
+     * only makes the choice of which leg to evict slightly worse.
+     */
+    private boolean referenced;
+
+    private Entry(FlightCacheKey key, FlightCacheValue value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Computes tours which visit all sensors and return to the starting point using the Lin-Kernighan
+ * heuristic on the distances between the sensors, and then improves them using the flight lengths
+ * in the same way as {@link EnhancedTwoOptTSP}.
+ *
+ * <p>Each Lin-Kernighan move is a chain of 2-opt moves. It breaks an edge (t1, t2) of the tour,
+ * joins t2 to a close vertex t3, and breaks the edge from t3 to its neighbour t4 on the path back
+ * to t1, reversing the path from t2 to t4 so that the tour can be closed with the edge (t4, t1).
+ * The chain carries on from t4 in place of t2 for as long as the total of the distances removed
+ * less those added stays positive, and the tour at the best point along the chain is kept. Only the
+ * closest few vertices to t2 are tried as t3, and a vertex is only used as t1 again after one of
+ * its edges has changed (its "don't look bit" is cleared).
+ *
+ * <p>See S. Lin and B. W. Kernighan, An Effective Heuristic Algorithm for the Traveling-Salesman
+ * Problem, Operations Research 21 (1973), and D. S. Johnson and L. A. McGeoch, The Traveling
+ * Salesman Problem: A Case Study in Local Optimization (1997).
+ */
+public class LinKernighanTSP {
+  /** The smallest decrease in the length of a tour that counts as an improvement */
+  private static final double MIN_GAIN = 1e-8;
+  /** The number of closest vertices to try joining to each vertex */
+  private static final int NEIGHBOURS = 8;
+  /** The number of choices for the first t3 to try, after which only the best one is tried */
+  private static final int BREADTH = 5;
+  /** The greatest number of 2-opt moves in one chain */
+  private static final int MAX_DEPTH = 50;
+
+  /** The random number generator for the initial tour */
+  private final Random random;
+  /** The start and end position of the drone */
+  private final Coords start;
+  /** The FlightPlanner for computing tour weights */
+  private final FlightPlanner flightPlanner;
+  /** The deadline at which to stop improving the tour */
+  private final Deadline deadline;
+
+  // These fields are set for each sensor graph a tour is found in
+  private int n;
+  /** The obstacle avoiding distances between the points, indexed by [i * n + j] */
+  private double[] dist;
+  /** The closest points to each point in increasing order of distance */
+  private int[][] neighbours;
+  /** The id of the point at each position of the tour */
+  private int[] tour;
+  /** The position of each point in the tour */
+  private int[] pos;
+
+  // The state of the current chain of 2-opt moves
+  /** The array positions of the ends of each reversal in the chain, to undo them */
+  private int[] reversalsFrom;
+  private int[] reversalsTo;
+  /** The edges joined in the chain, which may not be broken again in the same chain */
+  private int[] joinedA;
+  private int[] joinedB;
+  /** The points whose edges have changed in the chain */
+  private int[] touched;
+
+  /**
+   * Constructor
+   *
+   * @param seed the seed for the random number generator
+   * @param start the start and end position of the drone
+   * @param flightPlanner the FlightPlanner to be used to compute the weights of tours, measured as
+   *     the number of moves needed by the drone
+   */
+  public LinKernighanTSP(int seed, Coords start, FlightPlanner flightPlanner) {
+    this(seed, start, flightPlanner, Deadline.NONE);
+  }
+
+  /**
+   * Constructor for finding tours with a deadline. Once the deadline has passed, the tour found so
+   * far is returned as it is. Lin-Kernighan itself always finishes, since it takes well under a
+   * millisecond and its tour is much better than a random one.
+   *
+   * @param seed the seed for the random number generator
+   * @param start the start and end position of the drone
+   * @param flightPlanner the FlightPlanner to be used to compute the weights of tours, measured as
+   *     the number of moves needed by the drone
+   * @param deadline the deadline at which to stop improving the tour
+   */
+  public LinKernighanTSP(int seed, Coords start, FlightPlanner flightPlanner, Deadline deadline) {
+    this.random = new Random(seed);
+    this.start = start;
+    this.flightPlanner = flightPlanner;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Computes a tour by running Lin-Kernighan from a random initial tour using the distances in the
+   * sensor graph, then improves it using the flight lengths, see {@link
+   * EnhancedTwoOptTSP#improveTour}.
+   *
+   * @param sensorGraph the sensor graph containing the start location and the sensors, and the
+   *     distances of the shortest paths between two points which avoid obstacles.
+   * @return the tour as a list of Coords which starts and ends at the start position
+   */
+  public List<Coords> getTour(SensorGraph sensorGraph) {
+    init(sensorGraph);
+    if (n == 1) {
+      return List.of(start, start);
+    }
+    createInitialTour();
+    if (n >= 5) {
+      optimise();
+    }
+
+    var closedTour = new int[n + 1];
+    System.arraycopy(tour, 0, closedTour, 0, n);
+    closedTour[n] = tour[0];
+    return new EnhancedTwoOptTSP(start, flightPlanner, deadline)
+        .improveTour(sensorGraph, closedTour);
+  }
+
+  /**
+   * Copies the distances of the sensor graph into a flat array and finds the closest points to
+   * each point.
+   *
+   * @param sensorGraph the sensor graph
+   */
+  private void init(SensorGraph sensorGraph) {
+    n = sensorGraph.size();
+    dist = new double[n * n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        dist[i * n + j] = sensorGraph.getDistance(i, j);
+      }
+    }
+
+    var count = Math.min(NEIGHBOURS, n - 1);
+    neighbours = new int[n][count];
+    for (int i = 0; i < n; i++) {
+      // Insertion sort of the closest points to i
+      var closest = neighbours[i];
+      int size = 0;
+      for (int j = 0; j < n; j++) {
+        if (j == i || (size == count && dist[i * n + j] >= dist[i * n + closest[size - 1]])) {
+          continue;
+        }
+        int k = size < count ? size++ : size - 1;
+        while (k > 0 && dist[i * n + closest[k - 1]] > dist[i * n + j]) {
+          closest[k] = closest[k - 1];
+          k--;
+        }
+        closest[k] = j;
+      }
+    }
+
+    tour = new int[n];
+    pos = new int[n];
+    reversalsFrom = new int[MAX_DEPTH];
+    reversalsTo = new int[MAX_DEPTH];
+    joinedA = new int[MAX_DEPTH];
+    joinedB = new int[MAX_DEPTH];
+    touched = new int[2 * MAX_DEPTH + 2];
+  }
+
+  /** Creates a random tour, shuffling the ids in the same way as Collections.shuffle. */
+  private void createInitialTour() {
+    for (int i = 0; i < n; i++) {
+      tour[i] = i;
+    }
+    for (int i = n; i > 1; i--) {
+      int j = random.nextInt(i);
+      int tmp = tour[i - 1];
+      tour[i - 1] = tour[j];
+      tour[j] = tmp;
+    }
+    for (int i = 0; i < n; i++) {
+      pos[tour[i]] = i;
+    }
+  }
+
+  /**
+   * Improves the tour until no Lin-Kernighan move starting at any point improves it. The points to
+   * try are kept in a queue, and a point is put back in the queue when one of its edges changes.
+   */
+  private void optimise() {
+    var queue = new int[n];
+    var queued = new boolean[n];
+    int head = 0;
+    int size = n;
+    for (int i = 0; i < n; i++) {
+      queue[i] = tour[i];
+      queued[tour[i]] = true;
+    }
+
+    while (size > 0) {
+      int t1 = queue[head];
+      head = (head + 1) % n;
+      size--;
+      queued[t1] = false;
+
+      int touchedCount = improveFrom(t1, true);
+      if (touchedCount == 0) {
+        touchedCount = improveFrom(t1, false);
+      }
+      for (int i = 0; i < touchedCount; i++) {
+        var t = touched[i];
+        if (!queued[t]) {
+          queued[t] = true;
+          queue[(head + size) % n] = t;
+          size++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Tries to find a chain of 2-opt moves which starts by breaking the edge from t1 to the point
+   * after it in the given direction, and applies the best one if it makes the tour shorter.
+   *
+   * @param t1 the point to start from
+   * @param forward true to break the edge to the next point in the tour, false for the previous
+   * @return the number of points whose edges changed, which are in {@link #touched}, or 0 if the
+   *     tour was not improved
+   */
+  private int improveFrom(int t1, boolean forward) {
+    int t2 = next(t1, forward);
+    double removed = dist[t1 * n + t2];
+
+    // Find the best few choices for the first t3, by the length of the edge broken less the length
+    // of the edge joined
+    var choices = new int[BREADTH];
+    var choiceGains = new double[BREADTH];
+    int choiceCount = 0;
+    for (int t3 : neighbours[t2]) {
+      double joined = dist[t2 * n + t3];
+      if (removed - joined <= MIN_GAIN) {
+        break; // The neighbours are in order of distance, so none of the rest are any better
+      }
+      if (t3 == t1 || t3 == next(t2, forward)) {
+        continue;
+      }
+      int t4 = next(t3, !forward);
+      double gain = dist[t3 * n + t4] - joined;
+      if (choiceCount == BREADTH && gain <= choiceGains[choiceCount - 1]) {
+        continue;
+      }
+      int k = choiceCount < BREADTH ? choiceCount++ : choiceCount - 1;
+      while (k > 0 && choiceGains[k - 1] < gain) {
+        choices[k] = choices[k - 1];
+        choiceGains[k] = choiceGains[k - 1];
+        k--;
+      }
+      choices[k] = t3;
+      choiceGains[k] = gain;
+    }
+
+    for (int c = 0; c < choiceCount; c++) {
+      int depth = 0;
+      int bestDepth = 0;
+      double bestGain = MIN_GAIN;
+      // The total length of the edges broken less those joined, not counting the closing edge
+      double gain = removed;
+      int currentT2 = t2;
+      int t3 = choices[c];
+      while (true) {
+        int t4 = next(t3, !forward);
+        gain += dist[t3 * n + t4] - dist[currentT2 * n + t3];
+        reverse(currentT2, t4, forward, depth);
+        joinedA[depth] = currentT2;
+        joinedB[depth] = t3;
+        touched[2 * depth] = t3;
+        touched[2 * depth + 1] = t4;
+        depth++;
+
+        double closedGain = gain - dist[t4 * n + t1];
+        if (closedGain > bestGain) {
+          bestGain = closedGain;
+          bestDepth = depth;
+        }
+        if (depth == MAX_DEPTH) {
+          break;
+        }
+        // Carry on the chain from t4, now that the tour goes t1, t4, ..., t2, t3
+        currentT2 = t4;
+        t3 = chooseNext(t1, currentT2, gain, forward, depth);
+        if (t3 == -1) {
+          break;
+        }
+      }
+
+      // Go back to the best tour found along the chain
+      while (depth > bestDepth) {
+        depth--;
+        reverseRange(reversalsFrom[depth], reversalsTo[depth]);
+      }
+      if (bestDepth > 0) {
+        touched[2 * bestDepth] = t1;
+        touched[2 * bestDepth + 1] = t2;
+        return 2 * bestDepth + 2;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Chooses the next t3 to join to t2 in a chain, which is the one that maximises the length of the
+   * edge broken less the length of the edge joined, out of those which keep the gain positive.
+   *
+   * @param t1 the point the chain started from
+   * @param t2 the point at the end of the edge from t1 which will be broken
+   * @param gain the total length of the edges broken less those joined so far
+   * @param forward the direction of t2 from t1
+   * @param depth the number of moves in the chain so far
+   * @return the next t3, or -1 if there is none
+   */
+  private int chooseNext(int t1, int t2, double gain, boolean forward, int depth) {
+    int best = -1;
+    double bestGain = Double.NEGATIVE_INFINITY;
+    for (int t3 : neighbours[t2]) {
+      double joined = dist[t2 * n + t3];
+      if (gain - joined <= MIN_GAIN) {
+        break;
+      }
+      if (t3 == t1 || t3 == next(t2, forward)) {
+        continue;
+      }
+      int t4 = next(t3, !forward);
+      if (wasJoined(t3, t4, depth)) {
+        continue;
+      }
+      double moveGain = dist[t3 * n + t4] - joined;
+      if (moveGain > bestGain) {
+        bestGain = moveGain;
+        best = t3;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @param a a point
+   * @param b another point
+   * @param depth the number of moves in the chain so far
+   * @return true if the edge between the points was joined earlier in the chain
+   */
+  private boolean wasJoined(int a, int b, int depth) {
+    for (int i = 0; i < depth; i++) {
+      if ((joinedA[i] == a && joinedB[i] == b) || (joinedA[i] == b && joinedB[i] == a)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param point a point in the tour
+   * @param forward the direction to go in
+   * @return the next point in the tour in that direction
+   */
+  private int next(int point, boolean forward) {
+    return tour[(pos[point] + (forward ? 1 : n - 1)) % n];
+  }
+
+  /**
+   * Reverses the path of the tour from one point to another, and records it so it can be undone.
+   *
+   * @param from the first point of the path
+   * @param to the last point of the path
+   * @param forward the direction of the path from the first point
+   * @param depth the number of moves in the chain so far
+   */
+  private void reverse(int from, int to, boolean forward, int depth) {
+    int i = forward ? pos[from] : pos[to];
+    int j = forward ? pos[to] : pos[from];
+    reversalsFrom[depth] = i;
+    reversalsTo[depth] = j;
+    reverseRange(i, j);
+  }
+
+  /**
+   * Reverses the points between two positions of the tour, wrapping around the end of the array.
+   * Reversing the same positions again undoes it.
+   *
+   * @param i the first position
+   * @param j the last position
+   */
+  private void reverseRange(int i, int j) {
+    int length = (j - i + n) % n + 1;
+    for (int k = 0; k < length / 2; k++) {
+      int a = (i + k) % n;
+      int b = (j - k + n) % n;
+      int tmp = tour[a];
+      tour[a] = tour[b];
+      tour[b] = tmp;
+      pos[tour[a]] = a;
+      pos[tour[b]] = b;
+    }
+  }
+}
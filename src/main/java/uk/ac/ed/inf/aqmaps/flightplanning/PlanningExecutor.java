@@ -0,0 +1,180 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * A fixed number of worker threads for {@link FlightPlanner} to run flight planning on. This means
+ * the number of threads used can be chosen for each planner, and planning does not compete with
+ * anything else that uses the common ForkJoinPool. The threads are daemon threads named
+ * "flight-planner-(pool)-(worker)", so an executor which is never closed does not stop the JVM
+ * from exiting.
+ *
+ * <p>An executor may be shared by several FlightPlanners, which then take turns on the workers one
+ * batch of seeds at a time, see {@link #runBatches}. A FlightPlanner must not be run from one of
+ * the workers of its own executor, since it would then wait for work which may need that same
+ * worker. The planners also build their obstacle and sensor graphs on the workers, which is why
+ * this is an Executor, so that the obstacle code can be given it without depending on the planner.
+ */
+public class PlanningExecutor implements Executor, AutoCloseable {
+  /** Numbers the executors, to tell their threads apart */
+  private static final AtomicInteger poolCounter = new AtomicInteger(1);
+
+  /** The executor used by FlightPlanners which are not given one, created when first needed */
+  private static PlanningExecutor defaultExecutor;
+
+  private final ExecutorService executor;
+  private final int workers;
+
+  /**
+   * Constructor
+   *
+   * @param workers the number of worker threads
+   */
+  public PlanningExecutor(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be at least one");
+    }
+    this.workers = workers;
+    var namePrefix = "flight-planner-" + poolCounter.getAndIncrement() + "-";
+    var threadCounter = new AtomicInteger(1);
+    this.executor =
+        Executors.newFixedThreadPool(
+            workers,
+            runnable -> {
+              var thread = new Thread(runnable, namePrefix + threadCounter.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * @return the executor shared by FlightPlanners which are not given one, which has a worker for
+   *     each available processor
+   */
+  public static synchronized PlanningExecutor getDefault() {
+    if (defaultExecutor == null) {
+      defaultExecutor = new PlanningExecutor(Runtime.getRuntime().availableProcessors());
+    }
+    return defaultExecutor;
+  }
+
+  /** @return the number of worker threads */
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * Runs a task on one of the workers.
+   *
+   * @param task the task
+   */
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Runs the action for every index from 0 up to but not including the count on the workers, and
+   * waits for them all to finish. Each index is run as a batch of {@link #runBatches}, so this
+   * takes turns with the other work on the executor in the same way.
+   *
+   * @param count the number of indexes
+   * @param action the work for one index. It must be safe to run on several threads at once.
+   */
+  void forEachIndex(int count, IntConsumer action) {
+    var nextIndex = new AtomicInteger();
+    runBatches(
+        () -> {
+          var index = nextIndex.getAndIncrement();
+          if (index >= count) {
+            return false;
+          }
+          action.accept(index);
+          return true;
+        });
+  }
+
+  /**
+   * Runs batches of work on the workers until there are none left, and waits for them to finish.
+   * There is a chain of batches for each worker, and each batch goes to the back of the queue once
+   * it has run. So when several FlightPlanners share the executor their batches take turns, rather
+   * than the first one to start holding every worker until it is finished. If a batch throws, its
+   * chain stops, and the exception is thrown here once every chain has finished.
+   *
+   * @param batch runs one batch of work, returning false if there is none left. It must be safe to
+   *     run on several threads at once.
+   */
+  void runBatches(BooleanSupplier batch) {
+    var chains = new ArrayList<CompletableFuture<Void>>();
+    for (int i = 0; i < workers; i++) {
+      var chain = new BatchChain(batch);
+      chains.add(chain.done);
+      executor.execute(chain);
+    }
+    Throwable failure = null;
+    for (var chain : chains) {
+      try {
+        chain.get();
+      } catch (InterruptedException e) {
+        chains.forEach(c -> c.cancel(false));
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted while waiting for flight planning", e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IllegalStateException(failure);
+    }
+  }
+
+  /**
+   * Stops the workers once the batch they are running is finished. Flight planning which is still
+   * running then fails, so this should only be called once it is done.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /** Runs batches one at a time, putting itself back in the queue after each one. */
+  private class BatchChain implements Runnable {
+    private final BooleanSupplier batch;
+    /** Completed when there are no batches left, or if a batch throws or the chain is cancelled */
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    BatchChain(BooleanSupplier batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void run() {
+      if (done.isDone()) {
+        return;
+      }
+      try {
+        if (batch.getAsBoolean()) {
+          executor.execute(this);
+        } else {
+          done.complete(null);
+        }
+      } catch (Throwable t) {
+        done.completeExceptionally(t);
+      }
+    }
+  }
+}
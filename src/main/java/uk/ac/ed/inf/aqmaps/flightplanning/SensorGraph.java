@@ -1,17 +1,40 @@
 package uk.ac.ed.inf.aqmaps.flightplanning;
 
+import org.jgrapht.Graph;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.SimpleWeightedGraph;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibleVertices;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * A graph of the sensors and their distances to each other, taking into account obstacle evasion.
+ * The sensors and their distances to each other, taking into account obstacle evasion.
+ *
+ * <p>Each point is given a dense id, the sensors in the order they were given followed by the
+ * starting position. The distances are stored in a flat array holding the upper triangle of the
+ * distance matrix, so looking one up is a little arithmetic rather than hashing an edge, and they
+ * are found in parallel on the workers of a {@link PlanningExecutor}, since each one is an
+ * independent shortest path query. A JGraphT graph with
+ * the same vertices and weights is only built if {@link #asGraph()} is called.
  */
-public class SensorGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEdge> {
+public class SensorGraph {
+  /** The point with each id */
+  private final List<Coords> points;
+
+  /** The id of each point */
+  private final Map<Coords, Integer> ids;
+
+  /** The distance between points i and j for i < j, at {@link #pairIndex}(i, j) */
+  private final double[] distances;
+
+  /** The JGraphT graph with the same weights, or null if it has not been needed yet */
+  private Graph<Coords, DefaultWeightedEdge> graph;
 
   /**
    * Private Constructor
@@ -19,30 +42,44 @@ public class SensorGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEdge
    * @param startPosition the starting position of the drone
    * @param sensorCoords a Collection of the Coords of the sensors to be visited
    * @param obstacles the Obstacles that need to be avoided
+   * @param visibleVertices the obstacle graph vertices visible from each of the points, found with
+   *     the default pathfinder of the obstacles
+   * @param executor the executor to find the distances on
    */
-  private SensorGraph(Coords startPosition, Collection<Coords> sensorCoords, Obstacles obstacles) {
-    super(DefaultWeightedEdge.class);
-    var obstaclePathfinder = obstacles.getObstaclePathfinder();
+  private SensorGraph(
+      Coords startPosition,
+      Collection<Coords> sensorCoords,
+      Obstacles obstacles,
+      Map<Coords, VisibleVertices> visibleVertices,
+      PlanningExecutor executor) {
+    var obstaclePathfinder = obstacles.getObstaclePathfinder(executor);
+    points = new ArrayList<>(sensorCoords.size() + 1);
+    ids = new HashMap<>();
     for (var coords : sensorCoords) {
-      addVertex(coords);
-    }
-    addVertex(startPosition);
-
-    // Create edges between all pairs of vertices
-    var vertexList = new ArrayList<>(vertexSet());
-    for (int i = 0; i < vertexList.size() - 1; i++) {
-      for (int j = i + 1; j < vertexList.size(); j++) {
-        var edge = addEdge(vertexList.get(i), vertexList.get(j));
-        setEdgeWeight(
-            edge, obstaclePathfinder.getShortestPathLength(vertexList.get(i), vertexList.get(j)));
-      }
+      addPoint(coords);
     }
+    addPoint(startPosition);
+
+    // Find the distances between all pairs of points, a row of the upper triangle per task
+    int n = points.size();
+    distances = new double[n * (n - 1) / 2];
+    executor.forEachIndex(
+        n - 1,
+        i -> {
+          var start = points.get(i);
+          for (int j = i + 1; j < n; j++) {
+            var end = points.get(j);
+            distances[pairIndex(i, j)] =
+                obstaclePathfinder.getShortestPathLength(
+                    start, end, visibleVertices.get(start), visibleVertices.get(end));
+          }
+        });
   }
 
   /**
    * Creates a complete weighted graph with the points of all of the sensors and the starting
    * position. The edge weights are the shortest distance between the points, avoiding obstacles if
-   * necessary.
+   * necessary. The work is done on {@link PlanningExecutor#getDefault()}.
    *
    * @param startPosition the starting position of the drone
    * @param sensorCoords a Collection of the Coords of the sensors to be visited
@@ -51,6 +88,127 @@ public class SensorGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEdge
    */
   public static SensorGraph createWithStartLocation(
       Coords startPosition, Collection<Coords> sensorCoords, Obstacles obstacles) {
-    return new SensorGraph(startPosition, sensorCoords, obstacles);
+    // Each point is the start or end of a query to every other point, so share what it can see
+    var obstaclePathfinder = obstacles.getObstaclePathfinder(PlanningExecutor.getDefault());
+    var visibleVertices = new HashMap<Coords, VisibleVertices>();
+    visibleVertices.put(startPosition, obstaclePathfinder.getVisibleVertices(startPosition));
+    sensorCoords.forEach(
+        coords -> visibleVertices.put(coords, obstaclePathfinder.getVisibleVertices(coords)));
+    return createWithStartLocation(startPosition, sensorCoords, obstacles, visibleVertices);
+  }
+
+  /**
+   * Creates a complete weighted graph with the points of all of the sensors and the starting
+   * position, using the obstacle graph vertices already known to be visible from them.
+   *
+   * @param startPosition the starting position of the drone
+   * @param sensorCoords a Collection of the Coords of the sensors to be visited
+   * @param obstacles the Obstacles that need to be avoided
+   * @param visibleVertices the vertices visible from the points, found with {@link
+   *     Obstacles#getObstaclePathfinder()}, for as many of the points as are known
+   * @return a SensorGraph
+   */
+  public static SensorGraph createWithStartLocation(
+      Coords startPosition,
+      Collection<Coords> sensorCoords,
+      Obstacles obstacles,
+      Map<Coords, VisibleVertices> visibleVertices) {
+    return createWithStartLocation(
+        startPosition, sensorCoords, obstacles, visibleVertices, PlanningExecutor.getDefault());
+  }
+
+  /**
+   * Creates a complete weighted graph with the points of all of the sensors and the starting
+   * position as in {@link #createWithStartLocation(Coords, Collection, Obstacles, Map)}, finding
+   * the distances on the given executor. It must not be called from one of the executor's workers.
+   *
+   * @param startPosition the starting position of the drone
+   * @param sensorCoords a Collection of the Coords of the sensors to be visited
+   * @param obstacles the Obstacles that need to be avoided
+   * @param visibleVertices the vertices visible from the points, found with {@link
+   *     Obstacles#getObstaclePathfinder()}, for as many of the points as are known
+   * @param executor the executor to find the distances on
+   * @return a SensorGraph
+   */
+  public static SensorGraph createWithStartLocation(
+      Coords startPosition,
+      Collection<Coords> sensorCoords,
+      Obstacles obstacles,
+      Map<Coords, VisibleVertices> visibleVertices,
+      PlanningExecutor executor) {
+    return new SensorGraph(startPosition, sensorCoords, obstacles, visibleVertices, executor);
+  }
+
+  /** @return the number of points, including the starting position */
+  public int size() {
+    return points.size();
+  }
+
+  /**
+   * @param id the id of a point
+   * @return the point
+   */
+  public Coords getPoint(int id) {
+    return points.get(id);
+  }
+
+  /**
+   * @param coords a point in the graph
+   * @return the id of the point, or -1 if it is not in the graph
+   */
+  public int getId(Coords coords) {
+    return ids.getOrDefault(coords, -1);
+  }
+
+  /**
+   * @param i the id of a point
+   * @param j the id of another point
+   * @return the length of the shortest path between the points which avoids the obstacles, or
+   *     infinity if there is none
+   */
+  public double getDistance(int i, int j) {
+    if (i == j) {
+      return 0;
+    }
+    return i < j ? distances[pairIndex(i, j)] : distances[pairIndex(j, i)];
+  }
+
+  /**
+   * Gets a JGraphT graph of the points with edge weights equal to the distances. It is built the
+   * first time it is asked for, and adds the points in order of their ids.
+   *
+   * @return a complete weighted graph of the points
+   */
+  public synchronized Graph<Coords, DefaultWeightedEdge> asGraph() {
+    if (graph == null) {
+      var newGraph =
+          new SimpleWeightedGraph<Coords, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+      points.forEach(newGraph::addVertex);
+      for (int i = 0; i < points.size() - 1; i++) {
+        for (int j = i + 1; j < points.size(); j++) {
+          var edge = newGraph.addEdge(points.get(i), points.get(j));
+          newGraph.setEdgeWeight(edge, distances[pairIndex(i, j)]);
+        }
+      }
+      graph = newGraph;
+    }
+    return graph;
+  }
+
+  /** Gives the point an id, unless it already has one since a sensor is at the start position. */
+  private void addPoint(Coords coords) {
+    if (!ids.containsKey(coords)) {
+      ids.put(coords, points.size());
+      points.add(coords);
+    }
+  }
+
+  /**
+   * @param i the smaller id
+   * @param j the larger id
+   * @return the position in the upper triangle of the distance between the points
+   */
+  private int pairIndex(int i, int j) {
+    return i * (2 * points.size() - i - 1) / 2 + (j - i - 1);
   }
 }
@@ -0,0 +1,351 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Computes tours which visit all sensors and return to the starting point using simulated
+ * annealing on the distances between the sensors, and then improves them using the flight lengths
+ * in the same way as {@link EnhancedTwoOptTSP}.
+ *
+ * <p>Each step tries a random 2-opt move or Or-opt move (moving 1 to 3 sensors elsewhere), whose
+ * change in length is found from the edges it changes. Moves which make the tour shorter are always
+ * made, and moves which make it longer are made with a probability which falls as the temperature
+ * falls. The temperature falls geometrically from a level where about half of the longer tours are
+ * accepted to one where almost none are. If there is a deadline, the schedule follows the time left
+ * until {@value ANNEALING_TIME_FRACTION} of the way to it, so that one long chain uses most of the
+ * time budget and leaves the rest for improving the tour with the flight lengths. Otherwise it runs
+ * for a fixed number of steps.
+ *
+ * <p>Since a short tour by distance is not always a short flight, the flight length of the current
+ * tour is found every few thousand steps, and the tour with the shortest flight is the one that is
+ * kept.
+ */
+public class SimulatedAnnealingTSP {
+  /** The number of steps in a chain when there is no deadline */
+  private static final int FIXED_STEPS = 1_000_000;
+  /** The fraction of the time until the deadline to spend annealing */
+  private static final double ANNEALING_TIME_FRACTION = 0.9;
+  /** The number of steps between checks of the clock and updates of the temperature */
+  private static final int CLOCK_INTERVAL = 256;
+  /** The number of steps between finding the flight length of the current tour */
+  private static final int RESCORE_INTERVAL = 4096;
+  /** The final temperature as a fraction of the initial temperature */
+  private static final double FINAL_TEMPERATURE_FRACTION = 1e-3;
+  /** The number of random moves used to choose the initial temperature */
+  private static final int TEMPERATURE_SAMPLES = 1000;
+  /** The greatest number of sensors moved by an Or-opt move */
+  private static final int MAX_SEGMENT = 3;
+
+  /** The random number generator for the initial tour and the moves */
+  private final Random random;
+  /** The start and end position of the drone */
+  private final Coords start;
+  /** The FlightPlanner for computing tour weights */
+  private final FlightPlanner flightPlanner;
+  /** The deadline which sets the schedule, or Deadline.NONE to run for a fixed number of steps */
+  private final Deadline deadline;
+
+  // These fields are set for each sensor graph a tour is found in
+  private int n;
+  /** The id of the start position in the sensor graph */
+  private int startId;
+  /** The point with each id */
+  private Coords[] points;
+  /** The obstacle avoiding distances between the points, indexed by [i * n + j] */
+  private double[] dist;
+  /** The id of the point at each position of the current tour, which is a cycle */
+  private int[] tour;
+  /** A scratch array for applying Or-opt moves */
+  private int[] scratch;
+
+  /**
+   * Constructor
+   *
+   * @param seed the seed for the random number generator
+   * @param start the start and end position of the drone
+   * @param flightPlanner the FlightPlanner to be used to compute the weights of tours, measured as
+   *     the number of moves needed by the drone
+   * @param deadline the deadline to fit the schedule to, or Deadline.NONE to run for a fixed number
+   *     of steps instead
+   */
+  public SimulatedAnnealingTSP(
+      int seed, Coords start, FlightPlanner flightPlanner, Deadline deadline) {
+    this.random = new Random(seed);
+    this.start = start;
+    this.flightPlanner = flightPlanner;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Computes a tour by annealing from a random initial tour using the distances in the sensor
+   * graph, then improves the tour with the shortest flight that was seen using the flight lengths,
+   * see {@link EnhancedTwoOptTSP#improveTour}.
+   *
+   * @param sensorGraph the sensor graph containing the start location and the sensors, and the
+   *     distances of the shortest paths between two points which avoid obstacles.
+   * @return the tour as a list of Coords which starts and ends at the start position
+   */
+  public List<Coords> getTour(SensorGraph sensorGraph) {
+    init(sensorGraph);
+    if (n == 1) {
+      return List.of(start, start);
+    }
+    createInitialTour();
+    var best = n >= 5 ? anneal() : tour.clone();
+
+    var closedTour = new int[n + 1];
+    System.arraycopy(best, 0, closedTour, 0, n);
+    closedTour[n] = best[0];
+    return new EnhancedTwoOptTSP(start, flightPlanner, deadline)
+        .improveTour(sensorGraph, closedTour);
+  }
+
+  /**
+   * Copies the points and distances of the sensor graph into flat arrays.
+   *
+   * @param sensorGraph the sensor graph
+   */
+  private void init(SensorGraph sensorGraph) {
+    n = sensorGraph.size();
+    startId = sensorGraph.getId(start);
+    points = new Coords[n];
+    dist = new double[n * n];
+    for (int i = 0; i < n; i++) {
+      points[i] = sensorGraph.getPoint(i);
+      for (int j = 0; j < n; j++) {
+        dist[i * n + j] = sensorGraph.getDistance(i, j);
+      }
+    }
+    tour = new int[n];
+    scratch = new int[n];
+  }
+
+  /** Creates a random tour, shuffling the ids in the same way as Collections.shuffle. */
+  private void createInitialTour() {
+    for (int i = 0; i < n; i++) {
+      tour[i] = i;
+    }
+    for (int i = n; i > 1; i--) {
+      int j = random.nextInt(i);
+      int tmp = tour[i - 1];
+      tour[i - 1] = tour[j];
+      tour[j] = tmp;
+    }
+  }
+
+  /**
+   * Runs the annealing schedule on the current tour.
+   *
+   * @return the tour with the shortest flight which was seen
+   */
+  private int[] anneal() {
+    var view = new CycleView(tour);
+    var best = tour.clone();
+    // The random initial tour is never the best, and with an empty cache its flight is slow to find
+    int bestLength = Integer.MAX_VALUE;
+    boolean changed = false;
+
+    var initialTemperature = initialTemperature();
+    var logFraction = Math.log(FINAL_TEMPERATURE_FRACTION);
+    var startTime = System.nanoTime();
+    var endTime =
+        deadline.isNone()
+            ? Long.MAX_VALUE
+            : startTime + (long) ((deadline.getEndTime() - startTime) * ANNEALING_TIME_FRACTION);
+    var temperature = initialTemperature;
+    for (long step = 0; ; step++) {
+      if (step % CLOCK_INTERVAL == 0) {
+        double progress;
+        if (deadline.isNone()) {
+          progress = (double) step / FIXED_STEPS;
+        } else {
+          var now = System.nanoTime();
+          progress = now >= endTime ? 1 : (double) (now - startTime) / (endTime - startTime);
+        }
+        if (progress >= 1) {
+          break;
+        }
+        temperature = initialTemperature * Math.exp(logFraction * progress);
+      }
+      if (step % RESCORE_INTERVAL == 0 && changed) {
+        int length = flightLength(view);
+        if (length < bestLength) {
+          bestLength = length;
+          System.arraycopy(tour, 0, best, 0, n);
+        }
+        changed = false;
+      }
+      changed |= random.nextBoolean() ? tryTwoOptMove(temperature) : tryOrOptMove(temperature);
+    }
+
+    // If the deadline cut every flight short, the annealed tour is better than the random one
+    if (bestLength == Integer.MAX_VALUE || changed && flightLength(view) < bestLength) {
+      System.arraycopy(tour, 0, best, 0, n);
+    }
+    return best;
+  }
+
+  /**
+   * Chooses a temperature at which a move which makes the tour longer by the average amount of a
+   * random move is made with a probability of one half.
+   *
+   * @return the initial temperature
+   */
+  private double initialTemperature() {
+    double total = 0;
+    int count = 0;
+    for (int k = 0; k < TEMPERATURE_SAMPLES; k++) {
+      int i = random.nextInt(n);
+      int j = (i + 1 + random.nextInt(n - 3)) % n;
+      double change = twoOptChange(i, j);
+      if (change > 0) {
+        total += change;
+        count++;
+      }
+    }
+    return count == 0 ? Double.MIN_VALUE : total / count / Math.log(2);
+  }
+
+  /**
+   * @param change the change in length of a move
+   * @param temperature the current temperature
+   * @return true if the move should be made
+   */
+  private boolean accept(double change, double temperature) {
+    return change <= 0 || random.nextDouble() < Math.exp(-change / temperature);
+  }
+
+  /**
+   * Tries reversing a random path of the tour of at least 2 and at most n - 2 points.
+   *
+   * @param temperature the current temperature
+   * @return true if the move was made
+   */
+  private boolean tryTwoOptMove(double temperature) {
+    int i = random.nextInt(n);
+    int j = (i + 1 + random.nextInt(n - 3)) % n;
+    if (!accept(twoOptChange(i, j), temperature)) {
+      return false;
+    }
+    int length = (j - i + n) % n + 1;
+    for (int k = 0; k < length / 2; k++) {
+      int a = (i + k) % n;
+      int b = (j - k + n) % n;
+      int tmp = tour[a];
+      tour[a] = tour[b];
+      tour[b] = tmp;
+    }
+    return true;
+  }
+
+  /**
+   * @param i the first position of the path to reverse
+   * @param j the last position of the path to reverse, which may wrap around the end of the array
+   * @return the change in length from reversing the path
+   */
+  private double twoOptChange(int i, int j) {
+    int a = tour[(i + n - 1) % n];
+    int b = tour[i];
+    int c = tour[j];
+    int d = tour[(j + 1) % n];
+    return dist[a * n + c] + dist[b * n + d] - dist[a * n + b] - dist[c * n + d];
+  }
+
+  /**
+   * Tries moving a random path of 1 to {@value MAX_SEGMENT} points to between two other points,
+   * either way round.
+   *
+   * @param temperature the current temperature
+   * @return true if the move was made
+   */
+  private boolean tryOrOptMove(double temperature) {
+    int length = 1 + random.nextInt(Math.min(MAX_SEGMENT, n - 3));
+    int i = random.nextInt(n);
+    int offset = 1 + random.nextInt(n - length - 1);
+    boolean reversed = length > 1 && random.nextBoolean();
+
+    int p = tour[(i + n - 1) % n];
+    int a = tour[i];
+    int b = tour[(i + length - 1) % n];
+    int q = tour[(i + length) % n];
+    int j = (i + length - 1 + offset) % n;
+    int c = tour[j];
+    int d = tour[(j + 1) % n];
+    double change =
+        dist[p * n + q]
+            - dist[p * n + a]
+            - dist[b * n + q]
+            - dist[c * n + d]
+            + (reversed
+                ? dist[c * n + b] + dist[a * n + d]
+                : dist[c * n + a] + dist[b * n + d]);
+    if (!accept(change, temperature)) {
+      return false;
+    }
+
+    // Write the points after the segment up to c, then the segment, then the rest
+    int k = 0;
+    for (int m = 1; m <= offset; m++) {
+      scratch[k++] = tour[(i + length - 1 + m) % n];
+    }
+    for (int m = 0; m < length; m++) {
+      scratch[k++] = tour[(i + (reversed ? length - 1 - m : m)) % n];
+    }
+    for (int m = offset + 1; m < n - length + 1; m++) {
+      scratch[k++] = tour[(i + length - 1 + m) % n];
+    }
+    System.arraycopy(scratch, 0, tour, 0, n);
+    return true;
+  }
+
+  /**
+   * Finds the flight length of the current tour.
+   *
+   * @param view the view of the current tour
+   * @return the number of moves in the flight along the tour, or Integer.MAX_VALUE if the deadline
+   *     passed
+   */
+  private int flightLength(CycleView view) {
+    view.update();
+    return flightPlanner.computeFlightLength(view, deadline);
+  }
+
+  /**
+   * A tour stored as a cycle of ids seen as a list of Coords which is rotated to start and end at
+   * the start position, which is how the FlightPlanner takes tours. It reads the array each time,
+   * so it shows the current state of the tour as long as {@link #update()} is called after it
+   * changes.
+   */
+  private class CycleView extends AbstractList<Coords> {
+    private final int[] cycle;
+    /** The position of the start position in the array */
+    private int offset;
+
+    /** @param cycle the array holding the cycle */
+    CycleView(int[] cycle) {
+      this.cycle = cycle;
+    }
+
+    /** Finds the start position again after the tour has changed. */
+    void update() {
+      offset = 0;
+      while (cycle[offset] != startId) {
+        offset++;
+      }
+    }
+
+    @Override
+    public Coords get(int index) {
+      return points[cycle[(offset + index) % n]];
+    }
+
+    @Override
+    public int size() {
+      return n + 1;
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+/** The ways in which a {@link FlightPlanner} can find the order to visit the sensors in. */
+public enum TourMethod {
+  /**
+   * Run 2-opt from a random tour using the distances between the sensors, then improve the tour
+   * with 2-opt and segment moves using the flight lengths. See {@link EnhancedTwoOptTSP}.
+   */
+  TWO_OPT,
+  /**
+   * Run Lin-Kernighan from a random tour using the distances between the sensors, then improve the
+   * tour using the flight lengths as {@link #TWO_OPT} does. See {@link LinKernighanTSP}.
+   */
+  LIN_KERNIGHAN,
+  /**
+   * Run one simulated annealing chain on each thread for the whole time limit, using the distances
+   * between the sensors and checking the flight length every so often, then improve the best tour
+   * using the flight lengths as {@link #TWO_OPT} does. See {@link SimulatedAnnealingTSP}.
+   */
+  SIMULATED_ANNEALING
+}
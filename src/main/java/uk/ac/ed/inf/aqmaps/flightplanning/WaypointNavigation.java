@@ -4,6 +4,7 @@ import uk.ac.ed.inf.aqmaps.Move;
 import uk.ac.ed.inf.aqmaps.W3W;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibilityCache.CallSite;
 
 import java.util.*;
 
@@ -30,13 +31,25 @@ public class WaypointNavigation {
     110, -110, 120, -120, 130, -130, 140, -140, 150, -150, 160, -160, 170, -170, 180
   };
 
+  /** Marks that the blocked directions from a position have not been found yet */
+  private static final long UNKNOWN_DIRECTIONS = -1;
+
+  /** The deadline is checked once every this many recursions (minus one, as a bit mask) */
+  private static final int DEADLINE_CHECK_MASK = 1023;
+
   private final Obstacles obstacles;
 
+  /**
+   * The number of positions to make space for in {@link #visitedSet} at first. Navigating to one
+   * target rarely visits more than this.
+   */
+  private static final int VISITED_CAPACITY = 256;
+
   /**
    * Keeps track of all of the points we have visited so far so we can avoid looping back on
-   * ourselves.
+   * ourselves. It is cleared at the start of each navigation.
    */
-  private final Set<Coords> visitedSet = new HashSet<>();
+  private final CoordsHashSet visitedSet = new CoordsHashSet(VISITED_CAPACITY);
 
   /** A list of Coords waypoints for the drone to follow on its way to the target. */
   private List<Coords> waypoints;
@@ -50,7 +63,18 @@ public class WaypointNavigation {
   /** Count the number if times that navigateToLocation is called */
   private int countIterations = 0;
 
-  /** @param obstacles the obstacles for collision checking */
+  /** The deadline of the current navigation */
+  private Deadline deadline = Deadline.NONE;
+
+  /** Set once the deadline of the current navigation has passed, to unwind the search quickly */
+  private boolean cancelled;
+
+  /**
+   * Constructor. A single instance can be reused for any number of navigations, but only by one
+   * thread at a time.
+   *
+   * @param obstacles the obstacles for collision checking
+   */
   public WaypointNavigation(Obstacles obstacles) {
     this.obstacles = obstacles;
   }
@@ -67,9 +91,29 @@ public class WaypointNavigation {
    */
   public List<Move> navigateToLocation(
       Coords startingPosition, List<Coords> waypoints, W3W targetSensorW3W) {
+    return navigateToLocation(startingPosition, waypoints, targetSensorW3W, Deadline.NONE);
+  }
+
+  /**
+   * Find a sequence of moves that navigates the drone from the current location along the waypoints
+   * to the target, giving up if the deadline passes first.
+   *
+   * @param startingPosition the starting position of the drone
+   * @param waypoints a list of Coords waypoints for the drone to follow on its way to the target.
+   * @param targetSensorW3W the W3W of the target sensor, or null if the target is not a sensor.
+   * @param deadline the deadline to give up at
+   * @return a list of Moves that navigate the drone from the starting position to in range of the
+   *     target, or null if none was found before the deadline
+   */
+  public List<Move> navigateToLocation(
+      Coords startingPosition, List<Coords> waypoints, W3W targetSensorW3W, Deadline deadline) {
     this.waypoints = waypoints;
+    this.deadline = deadline;
+    this.cancelled = false;
     this.targetLocation = waypoints.get(waypoints.size() - 1);
     this.targetSensorW3W = targetSensorW3W;
+    visitedSet.clear();
+    countIterations = 0;
 
     // Estimate the length of the path to the first waypoint for checking if we get stuck
     var maxLengthFirstMove = predictMaxMoveLength(startingPosition, waypoints.get(1));
@@ -119,6 +163,18 @@ public class WaypointNavigation {
       return null;
     }
 
+    // Give up if the deadline has passed, only reading the clock every so often
+    if (!cancelled && (countIterations & DEADLINE_CHECK_MASK) == 0) {
+      cancelled = deadline.hasPassed();
+    }
+    if (cancelled) {
+      return null;
+    }
+
+    // A mask of the directions of the moves from here which collide with an obstacle, see
+    // Obstacles.blockedMoveDirections(). It is only found once a move has collided.
+    long blockedDirections = UNKNOWN_DIRECTIONS;
+
     // When looking for a move, start by going directly towards the next waypoint. This may fail if
     // we hit an obstacle, so we try again but in a new direction offset from the direct line. We
     // start with small offsets in both directions and work our way out.
@@ -129,21 +185,30 @@ public class WaypointNavigation {
 
       var positionAfterMove = currentPosition.getPositionAfterMoveDegrees(direction, MOVE_LENGTH);
 
-      if (visitedSet.contains(positionAfterMove)) {
+      if (!visitedSet.add(positionAfterMove)) {
         // If we have moved here before, don't do it again
         continue;
       }
-      visitedSet.add(positionAfterMove);
 
       // If the move collides with an obstacle then try a different offset
-      if (obstacles.lineCollision(currentPosition, positionAfterMove)) {
+      var collides =
+          blockedDirections == UNKNOWN_DIRECTIONS
+              ? obstacles.lineCollision(currentPosition, positionAfterMove, CallSite.NAVIGATION)
+              : (blockedDirections & (1L << (direction / 10))) != 0;
+      if (collides) {
+        if (blockedDirections == UNKNOWN_DIRECTIONS) {
+          // We are next to an obstacle and are likely to try many more directions, so find which
+          // ones are blocked all at once rather than checking them one by one
+          blockedDirections = obstacles.blockedMoveDirections(currentPosition, MOVE_LENGTH);
+        }
         continue;
       }
 
       // If our target waypoint is not the last then it is the corner of on obstacle so check if we
       // have line of sight to the next waypoint and have gone round the corner.
       if (currWaypoint < waypoints.size() - 1
-          && !obstacles.lineCollision(positionAfterMove, waypoints.get(currWaypoint + 1))) {
+          && !obstacles.lineCollision(
+              positionAfterMove, waypoints.get(currWaypoint + 1), CallSite.NAVIGATION)) {
 
         var nextEstimatedLength =
             predictMaxMoveLength(positionAfterMove, waypoints.get(currWaypoint + 1));
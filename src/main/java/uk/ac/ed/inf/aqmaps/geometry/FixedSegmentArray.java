@@ -0,0 +1,62 @@
+package uk.ac.ed.inf.aqmaps.geometry;
+
+/**
+ * A copy of a {@link SegmentArray} with the coordinates in fixed point, see {@link FixedPoint}. The
+ * intersection test uses exact integer arithmetic, so it gives the mathematically correct answer
+ * even for lines which only just touch a segment, where the floating point test can be wrong.
+ */
+public class FixedSegmentArray {
+  // The start and end points of each segment
+  private final long[] x1;
+  private final long[] y1;
+  private final long[] x2;
+  private final long[] y2;
+
+  /** @param segments the segments to copy */
+  public FixedSegmentArray(SegmentArray segments) {
+    int n = segments.size();
+    x1 = new long[n];
+    y1 = new long[n];
+    x2 = new long[n];
+    y2 = new long[n];
+    for (int i = 0; i < n; i++) {
+      x1[i] = FixedPoint.fromDegrees(segments.getX1(i));
+      y1[i] = FixedPoint.fromDegrees(segments.getY1(i));
+      x2[i] = FixedPoint.fromDegrees(segments.getX2(i));
+      y2[i] = FixedPoint.fromDegrees(segments.getY2(i));
+    }
+  }
+
+  /** @return the number of segments */
+  public int size() {
+    return x1.length;
+  }
+
+  /**
+   * Determines whether the segment with the given index intersects the line segment between two
+   * points, with exact arithmetic. Touching and overlapping segments count as intersecting.
+   *
+   * @param i the index of the segment
+   * @param ax the fixed point x coordinate of the start of the line
+   * @param ay the fixed point y coordinate of the start of the line
+   * @param bx the fixed point x coordinate of the end of the line
+   * @param by the fixed point y coordinate of the end of the line
+   * @return true if the segment intersects the line, false otherwise
+   */
+  public boolean intersects(int i, long ax, long ay, long bx, long by) {
+    // Segments can only intersect if their bounding boxes overlap
+    if (Math.max(ax, bx) < Math.min(x1[i], x2[i])
+        || Math.min(ax, bx) > Math.max(x1[i], x2[i])
+        || Math.max(ay, by) < Math.min(y1[i], y2[i])
+        || Math.min(ay, by) > Math.max(y1[i], y2[i])) {
+      return false;
+    }
+    // The ends of each segment must not be strictly on the same side of the other one
+    return FixedPoint.orientation(ax, ay, bx, by, x1[i], y1[i])
+                * FixedPoint.orientation(ax, ay, bx, by, x2[i], y2[i])
+            <= 0
+        && FixedPoint.orientation(x1[i], y1[i], x2[i], y2[i], ax, ay)
+                * FixedPoint.orientation(x1[i], y1[i], x2[i], y2[i], bx, by)
+            <= 0;
+  }
+}
@@ -18,6 +18,12 @@ public class Polygon {
    */
   public static final double OUTLINE_MARGIN = 1e-14;
 
+  /**
+   * The number of times the outline margin may be doubled at a vertex where rounding would leave
+   * the outline point on one of the sides, see {@link #generateOutlinePoints}
+   */
+  private static final int MAX_OUTLINE_MARGIN_DOUBLINGS = 8;
+
   /** A list of the vertices of the polygon */
   private final List<Coords> points;
 
@@ -27,12 +33,18 @@ public class Polygon {
    */
   private final Path2D path;
 
-  /** All of the line segments that make up the edges */
-  private final List<Line2D> segments;
+  /** All of the line segments that make up the edges, stored as primitive arrays */
+  private final SegmentArray segments;
 
   /** A rectangular bounding box which contains the polygon */
   private final Rectangle2D boundingBox;
 
+  /** Twice the signed area of the polygon, which is positive if the vertices are anticlockwise */
+  private final double doubleSignedArea;
+
+  /** Whether the sides of the polygon only meet at their shared vertices */
+  private final boolean simple;
+
   /**
    * Initialize a Polygon from a list of Coords points
    *
@@ -41,8 +53,10 @@ public class Polygon {
   private Polygon(List<Coords> points) {
     this.points = points;
     this.path = generatePath2D();
-    this.segments = createSegments();
+    this.segments = SegmentArray.fromClosedPolygon(points);
     this.boundingBox = createBoundingBox();
+    this.doubleSignedArea = calculateDoubleSignedArea();
+    this.simple = checkSimple();
   }
 
   /**
@@ -50,21 +64,20 @@ public class Polygon {
    *
    * @param feature a GeoJSON Feature containing a Polygon
    * @return the converted Polygon
+   * @throws IllegalArgumentException if the feature is not a Polygon, or has holes
    */
   public static Polygon buildFromFeature(Feature feature) {
     // The Geometry interface does not have coordinates(), so we must cast to Polygon first. If it
     // isn't a polygon then something must have gone wrong
     if (!Objects.requireNonNull(feature.geometry()).type().equals("Polygon")) {
-      System.out.println("Fatal error: no-fly zone GeoJSON feature was not a Polygon");
-      System.exit(1);
+      throw new IllegalArgumentException("no-fly zone GeoJSON feature was not a Polygon");
     }
     var mapboxPolygon = (com.mapbox.geojson.Polygon) feature.geometry();
 
     // Polygon features are a lists of lists to handle polygons with holes, but the program doesn't
     // work with holes
     if (mapboxPolygon.coordinates().size() != 1) {
-      System.out.println("Fatal error: no-fly zone polygon must not contain any holes");
-      System.exit(1);
+      throw new IllegalArgumentException("no-fly zone polygon must not contain any holes");
     }
 
     // Convert the GeoJSON points to Coords
@@ -81,9 +94,10 @@ public class Polygon {
   /**
    * Generates the points of a new polygon which contains the original by a very small margin. It
    * generates points a distance of 1.0e-14 from each point in the original Polygon in the direction
-   * of the bisecting angle between the two adjacent sides, or the opposite direction if that point
-   * is inside the polygon. The resulting polygon will be larger than the original by a margin of
-   * 1.0e-14 on all sides.
+   * of the bisecting angle between the two adjacent sides, or the opposite direction if that
+   * points inside the polygon. If rounding would leave that point on the line of one of the adjacent
+   * sides, the distance is doubled until it is strictly outside both of them. The resulting polygon
+   * will be larger than the original by a margin of at least 1.0e-14 on all sides.
    *
    * @return the outlining Polygon
    */
@@ -108,12 +122,32 @@ public class Polygon {
       // Calculate the bisecting angle between the current point and its adjacent points
       var bisector = currentPoint.bisectorDirection(prevPoint, nextPoint);
 
-      // Create a new point a small distance away in the direction of the bisector
-      var newPoint = currentPoint.getPositionAfterMoveRadians(bisector, OUTLINE_MARGIN);
+      // The point should be outside both of the adjacent sides, so if the bisector points inside
+      // the polygon then put it in the opposite direction. This is decided from the direction
+      // itself, since a point so close to the vertex can be rounded onto either side of a thin
+      // corner. The sides of a polygon which is not simple do not tell where its inside is, so
+      // then the point itself is checked instead.
+      var direction = bisector;
+      if (simple
+          ? !isOutsideAdjacentSides(i, Math.cos(bisector), Math.sin(bisector))
+          : this.contains(currentPoint.getPositionAfterMoveRadians(bisector, OUTLINE_MARGIN))) {
+        direction = bisector + Math.PI;
+      }
 
-      // If the new point is inside the polygon then put it in the opposite direction
-      if (this.contains(newPoint)) {
-        newPoint = currentPoint.getPositionAfterMoveRadians(bisector + Math.PI, OUTLINE_MARGIN);
+      // Create a new point a small distance away in that direction. The margin is close to the
+      // spacing of doubles at these coordinates, so the point can be rounded onto the line of one
+      // of the adjacent sides, and then a line between it and the next outline point would touch
+      // the polygon. In that case move it further away until it is strictly outside both sides.
+      var margin = OUTLINE_MARGIN;
+      var newPoint = currentPoint.getPositionAfterMoveRadians(direction, margin);
+      for (int attempt = 0;
+          simple
+              && attempt < MAX_OUTLINE_MARGIN_DOUBLINGS
+              && !isOutsideAdjacentSides(
+                  i, newPoint.x - currentPoint.x, newPoint.y - currentPoint.y);
+          attempt++) {
+        margin *= 2;
+        newPoint = currentPoint.getPositionAfterMoveRadians(direction, margin);
       }
 
       outlinePoints.add(newPoint);
@@ -121,6 +155,26 @@ public class Polygon {
     return outlinePoints;
   }
 
+  /**
+   * Determines whether an offset from the vertex with the given index points strictly outside the
+   * lines through both of the sides which meet at the vertex. The offset is given rather than the
+   * point it leads to, since it is not affected by the rounding of the coordinates.
+   *
+   * @param i the index of the vertex
+   * @param dx the offset in the x direction
+   * @param dy the offset in the y direction
+   * @return true if the offset points strictly outside both sides, false otherwise
+   */
+  private boolean isOutsideAdjacentSides(int i, double dx, double dy) {
+    var previous = points.get(i == 0 ? points.size() - 1 : i - 1);
+    var current = points.get(i);
+    var next = points.get(i == points.size() - 1 ? 0 : i + 1);
+    var previousSide = (current.x - previous.x) * dy - (current.y - previous.y) * dx;
+    var nextSide = (next.x - current.x) * dy - (next.y - current.y) * dx;
+    // The inside of the polygon is on the left of each side if its vertices are anticlockwise
+    return previousSide * doubleSignedArea < 0 && nextSide * doubleSignedArea < 0;
+  }
+
   /**
    * Determines whether the line segment between the start and end points collides with the polygon.
    *
@@ -134,7 +188,58 @@ public class Polygon {
       return false;
     }
     // Check all of the line segments for intersection
-    return segments.stream().anyMatch(s -> s.intersectsLine(start.x, start.y, end.x, end.y));
+    return segments.anyIntersects(start.x, start.y, end.x, end.y);
+  }
+
+  /**
+   * Determines whether the vertex with the given index is a convex corner of the polygon, so that
+   * the polygon turns towards its inside at the vertex. Only convex corners can be on the shortest
+   * path around the polygon, since a path which bends at a concave corner could cut across it.
+   *
+   * @param i the index of the vertex
+   * @return true if the vertex is a convex corner, false if it is concave or straight
+   */
+  public boolean isConvexVertex(int i) {
+    var previous = points.get(i == 0 ? points.size() - 1 : i - 1);
+    var current = points.get(i);
+    var next = points.get(i == points.size() - 1 ? 0 : i + 1);
+    var turn =
+        (current.x - previous.x) * (next.y - current.y)
+            - (current.y - previous.y) * (next.x - current.x);
+    return turn * doubleSignedArea > 0;
+  }
+
+  /**
+   * Determines whether the line from the vertex with the given index to another point is tangent to
+   * the polygon at that vertex, so that both of the adjacent vertices lie on the same side of the
+   * line or on it. A shortest path can only pass a convex vertex along tangent lines, since
+   * otherwise it could be shortened by cutting the corner.
+   *
+   * @param i the index of the vertex
+   * @param other the other point on the line
+   * @return true if the line is tangent at the vertex, false otherwise
+   */
+  public boolean isTangentAtVertex(int i, Coords other) {
+    var previous = points.get(i == 0 ? points.size() - 1 : i - 1);
+    var current = points.get(i);
+    var next = points.get(i == points.size() - 1 ? 0 : i + 1);
+    var dx = other.x - current.x;
+    var dy = other.y - current.y;
+    var previousSide = dx * (previous.y - current.y) - dy * (previous.x - current.x);
+    var nextSide = dx * (next.y - current.y) - dy * (next.x - current.x);
+    return Math.signum(previousSide) * Math.signum(nextSide) >= 0;
+  }
+
+  /**
+   * Determines whether the polygon is simple, so that its sides only meet at their shared vertices.
+   * The inside of a polygon whose sides cross is not always on the same side of its sides, so its
+   * convex corners and tangents do not tell which way a path must go around it, see {@link
+   * #isConvexVertex} and {@link #isTangentAtVertex}.
+   *
+   * @return true if the polygon is simple, false if any of its sides cross or touch
+   */
+  public boolean isSimple() {
+    return simple;
   }
 
   /**
@@ -152,31 +257,30 @@ public class Polygon {
     return points;
   }
 
-  /**
-   * This method is currently only used in a test, but it is kept to test whether the segments have
-   * been created properly.
-   *
-   * @return the segments which make up the edges of the polygon
-   */
-  public List<Line2D> getSegments() {
+  /** @return a rectangular bounding box which contains the polygon */
+  public Rectangle2D getBoundingBox() {
+    return boundingBox;
+  }
+
+  /** @return the segments which make up the edges of the polygon, as primitive arrays */
+  public SegmentArray getSegmentArray() {
     return segments;
   }
 
   /**
-   * Creates a list of the segments between adjacent points in the polygon.
+   * This method is currently only used in a test, but it is kept to test whether the segments have
+   * been created properly. The list is created from the segment arrays on each call.
    *
-   * @return a list of Segments as Line2D
+   * @return the segments which make up the edges of the polygon
    */
-  private List<Line2D> createSegments() {
-    var segments = new ArrayList<Line2D>();
-
-    // Create a segment between each adjacent point.
-    for (int i = 0; i < points.size(); i++) {
-      var start = points.get(i);
-      var end = points.get((i + 1) % points.size());
-      segments.add(new Line2D.Double(start, end));
+  public List<Line2D> getSegments() {
+    var segmentList = new ArrayList<Line2D>();
+    for (int i = 0; i < segments.size(); i++) {
+      segmentList.add(
+          new Line2D.Double(
+              segments.getX1(i), segments.getY1(i), segments.getX2(i), segments.getY2(i)));
     }
-    return segments;
+    return segmentList;
   }
 
   /**
@@ -201,6 +305,45 @@ public class Polygon {
     return path;
   }
 
+  /**
+   * Calculates twice the signed area of the polygon with the shoelace formula. The coordinates are
+   * taken relative to the first vertex, since the products of the raw coordinates are so large that
+   * rounding would swamp the area of a small polygon.
+   *
+   * @return twice the signed area, which is positive if the vertices are anticlockwise
+   */
+  private double calculateDoubleSignedArea() {
+    var origin = points.get(0);
+    double area = 0;
+    for (int i = 1; i < points.size() - 1; i++) {
+      var current = points.get(i);
+      var next = points.get(i + 1);
+      area +=
+          (current.x - origin.x) * (next.y - origin.y) - (next.x - origin.x) * (current.y - origin.y);
+    }
+    return area;
+  }
+
+  /**
+   * Checks every pair of sides which are not adjacent for an intersection. Polygons have few
+   * vertices, so this is done once when the polygon is created.
+   *
+   * @return true if no two sides which are not adjacent intersect, false otherwise
+   */
+  private boolean checkSimple() {
+    for (int i = 0; i < segments.size(); i++) {
+      // The last side is adjacent to the first, so it is skipped when starting from the first
+      var last = i == 0 ? segments.size() - 1 : segments.size();
+      for (int j = i + 2; j < last; j++) {
+        if (segments.intersects(
+            i, segments.getX1(j), segments.getY1(j), segments.getX2(j), segments.getY2(j))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Creates a bounding box that contains the rectangular bounds of the polygon.
    *
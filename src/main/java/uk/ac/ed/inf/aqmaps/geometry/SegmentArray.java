@@ -0,0 +1,202 @@
+package uk.ac.ed.inf.aqmaps.geometry;
+
+import java.util.List;
+
+/**
+ * A list of line segments stored as separate arrays of primitive coordinates. Intersection tests
+ * against a segment allocate nothing and only read a few adjacent array elements, which is much
+ * faster than testing a list of Line2D objects. The intersection test gives exactly the same
+ * results as {@link java.awt.geom.Line2D#linesIntersect}.
+ */
+public class SegmentArray {
+  // The start and end points of each segment
+  private final double[] x1;
+  private final double[] y1;
+  private final double[] x2;
+  private final double[] y2;
+
+  // The bounding box of each segment, used to reject most segments before the orientation tests
+  private final double[] minX;
+  private final double[] minY;
+  private final double[] maxX;
+  private final double[] maxY;
+
+  /**
+   * Creates the segments between adjacent points of a closed polygon, including the segment from
+   * the last point back to the first.
+   *
+   * @param points the vertices of the polygon, in order
+   * @return the segments which make up the edges of the polygon
+   */
+  public static SegmentArray fromClosedPolygon(List<Coords> points) {
+    var n = points.size();
+    var segments = new SegmentArray(n);
+    for (int i = 0; i < n; i++) {
+      var start = points.get(i);
+      var end = points.get((i + 1) % n);
+      segments.set(i, start.x, start.y, end.x, end.y);
+    }
+    return segments;
+  }
+
+  /**
+   * Joins several arrays of segments into one.
+   *
+   * @param parts the arrays to join, in order
+   * @return an array containing all of the segments in the parts
+   */
+  public static SegmentArray concat(List<SegmentArray> parts) {
+    int n = 0;
+    for (var part : parts) {
+      n += part.size();
+    }
+    var segments = new SegmentArray(n);
+    int i = 0;
+    for (var part : parts) {
+      for (int j = 0; j < part.size(); j++) {
+        segments.set(i++, part.x1[j], part.y1[j], part.x2[j], part.y2[j]);
+      }
+    }
+    return segments;
+  }
+
+  /** @param size the number of segments */
+  private SegmentArray(int size) {
+    x1 = new double[size];
+    y1 = new double[size];
+    x2 = new double[size];
+    y2 = new double[size];
+    minX = new double[size];
+    minY = new double[size];
+    maxX = new double[size];
+    maxY = new double[size];
+  }
+
+  private void set(int i, double startX, double startY, double endX, double endY) {
+    x1[i] = startX;
+    y1[i] = startY;
+    x2[i] = endX;
+    y2[i] = endY;
+    minX[i] = Math.min(startX, endX);
+    minY[i] = Math.min(startY, endY);
+    maxX[i] = Math.max(startX, endX);
+    maxY[i] = Math.max(startY, endY);
+  }
+
+  /** @return the number of segments */
+  public int size() {
+    return x1.length;
+  }
+
+  /**
+   * Determines whether any of the segments intersects the line segment between the two points.
+   *
+   * @param ax the x coordinate of the start of the line
+   * @param ay the y coordinate of the start of the line
+   * @param bx the x coordinate of the end of the line
+   * @param by the y coordinate of the end of the line
+   * @return true if any segment intersects the line, false otherwise
+   */
+  public boolean anyIntersects(double ax, double ay, double bx, double by) {
+    for (int i = 0; i < x1.length; i++) {
+      if (intersects(i, ax, ay, bx, by)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines whether the segment with the given index intersects the line segment between two
+   * points. Touching and overlapping segments count as intersecting.
+   *
+   * @param i the index of the segment
+   * @param ax the x coordinate of the start of the line
+   * @param ay the y coordinate of the start of the line
+   * @param bx the x coordinate of the end of the line
+   * @param by the y coordinate of the end of the line
+   * @return true if the segment intersects the line, false otherwise
+   */
+  public boolean intersects(int i, double ax, double ay, double bx, double by) {
+    // Segments can only intersect if their bounding boxes overlap
+    if (Math.max(ax, bx) < minX[i]
+        || Math.min(ax, bx) > maxX[i]
+        || Math.max(ay, by) < minY[i]
+        || Math.min(ay, by) > maxY[i]) {
+      return false;
+    }
+    // The ends of each segment must not be strictly on the same side of the other one
+    return orientation(ax, ay, bx, by, x1[i], y1[i]) * orientation(ax, ay, bx, by, x2[i], y2[i])
+            <= 0
+        && orientation(x1[i], y1[i], x2[i], y2[i], ax, ay)
+                * orientation(x1[i], y1[i], x2[i], y2[i], bx, by)
+            <= 0;
+  }
+
+  /**
+   * Calculates which side of the line from point 1 to point 2 point P lies on. This uses exactly
+   * the same arithmetic as {@link java.awt.geom.Line2D#relativeCCW} so that the results are
+   * identical, including the rounding and the handling of collinear points.
+   *
+   * @param x1 the x coordinate of point 1
+   * @param y1 the y coordinate of point 1
+   * @param x2 the x coordinate of point 2
+   * @param y2 the y coordinate of point 2
+   * @param px the x coordinate of point P
+   * @param py the y coordinate of point P
+   * @return 1 or -1 depending on the side, or 0 if P is on the segment
+   */
+  private static int orientation(
+      double x1, double y1, double x2, double y2, double px, double py) {
+    x2 -= x1;
+    y2 -= y1;
+    px -= x1;
+    py -= y1;
+    double ccw = px * y2 - py * x2;
+    if (ccw == 0.0) {
+      // The point is collinear, so it counts as on the line only if it projects inside the segment
+      ccw = px * x2 + py * y2;
+      if (ccw > 0.0) {
+        px -= x2;
+        py -= y2;
+        ccw = px * x2 + py * y2;
+        if (ccw < 0.0) {
+          ccw = 0.0;
+        }
+      }
+    }
+    return (ccw < 0.0) ? -1 : ((ccw > 0.0) ? 1 : 0);
+  }
+
+  /**
+   * @param i the index of a segment
+   * @return the x coordinate of the start of the segment
+   */
+  public double getX1(int i) {
+    return x1[i];
+  }
+
+  /**
+   * @param i the index of a segment
+   * @return the y coordinate of the start of the segment
+   */
+  public double getY1(int i) {
+    return y1[i];
+  }
+
+  /**
+   * @param i the index of a segment
+   * @return the x coordinate of the end of the segment
+   */
+  public double getX2(int i) {
+    return x2[i];
+  }
+
+  /**
+   * @param i the index of a segment
+   * @return the y coordinate of the end of the segment
+   */
+  public double getY2(int i) {
+    return y2[i];
+  }
+}
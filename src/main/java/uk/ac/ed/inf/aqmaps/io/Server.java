@@ -3,11 +3,12 @@ package uk.ac.ed.inf.aqmaps.io;
 /** Handles requesting data from a server. */
 public interface Server {
   /**
-   * Request the data that is located at the given URL. Will cause a fatal error if it cannot
-   * connect to the server, or if the requested file is not found.
+   * Request the data that is located at the given URL.
    *
    * @param url the URL of the file to request
    * @return the requested data as a String
+   * @throws java.io.UncheckedIOException if it cannot connect to the server
+   * @throws IllegalStateException if the requested file is not found
    */
   String requestData(String url);
 }
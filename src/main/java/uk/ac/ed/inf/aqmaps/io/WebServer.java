@@ -1,6 +1,7 @@
 package uk.ac.ed.inf.aqmaps.io;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -12,25 +13,22 @@ public class WebServer implements Server {
 
   @Override
   public String requestData(String url) {
-    String returnValue = "";
+    HttpResponse<String> response;
     try {
       var request = HttpRequest.newBuilder().uri(URI.create(url)).build();
-      var response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-      if (response.statusCode() == 200) {
-        // 200 means OK
-        returnValue = response.body();
-      } else {
-        // any other status code means the data has not been acquired successfully
-        System.out.println("Fatal error: " + url + " returned status " + response.statusCode());
-        System.exit(1);
-      }
-
-    } catch (IOException | InterruptedException e) {
+      response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    } catch (IOException e) {
       // This is normally a java.net.ConnectException if there is no server running on the port
-      System.out.println("Fatal error: Unable to connect to " + url);
-      System.exit(1);
+      throw new UncheckedIOException("Unable to connect to " + url, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while requesting " + url, e);
+    }
+
+    // Any status code other than 200 OK means the data has not been acquired successfully
+    if (response.statusCode() != 200) {
+      throw new IllegalStateException(url + " returned status " + response.statusCode());
     }
-    return returnValue; // This should never be reached, but the compiler isn't figuring that out.
+    return response.body();
   }
 }
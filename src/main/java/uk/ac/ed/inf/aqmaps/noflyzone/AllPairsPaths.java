@@ -0,0 +1,101 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * The shortest paths between every pair of vertices of a {@link CompactGraph}. The distances and
+ * the next vertex along each path are stored in flat n by n arrays, indexed by [from * n + to].
+ * Each row is found by running Dijkstra's algorithm from one vertex, and the rows are computed in
+ * parallel on the given executor.
+ */
+class AllPairsPaths {
+  /**
+   * The largest graph to compute the tables for. They take 12 bytes per pair of vertices, so this
+   * is about 48 MB, and far larger graphs would overflow the size of the arrays.
+   */
+  static final int MAX_VERTICES = 2000;
+
+  private final int size;
+  private final double[] distances;
+  private final int[] nextHops;
+
+  /**
+   * @param graph the graph to find the shortest paths in, which must have at most {@value
+   *     MAX_VERTICES} vertices
+   * @param executor the executor to compute the rows on
+   */
+  AllPairsPaths(CompactGraph graph, Executor executor) {
+    size = graph.size();
+    if (size > MAX_VERTICES) {
+      throw new IllegalArgumentException(
+          "The obstacle graph has "
+              + size
+              + " vertices, too many for all pairs shortest paths (at most "
+              + MAX_VERTICES
+              + ")");
+    }
+    distances = new double[size * size];
+    nextHops = new int[size * size];
+    ParallelLoop.forEachIndex(
+        executor, size, source -> computeRow(graph, source, new DijkstraState(size)));
+  }
+
+  /**
+   * Runs Dijkstra's algorithm from the source and fills in its row of the arrays.
+   *
+   * @param graph the graph
+   * @param source the source vertex
+   * @param state the scratch space for the search
+   */
+  private void computeRow(CompactGraph graph, int source, DijkstraState state) {
+    int row = source * size;
+    Arrays.fill(nextHops, row, row + size, -1);
+    state.start(source, 0);
+    while (!state.isEmpty()) {
+      int u = state.pop();
+      if (!state.settle(u)) {
+        continue;
+      }
+      distances[row + u] = state.getDistance(u);
+
+      // The previous vertex was settled first, so the first hop towards it is already known
+      int previous = state.getPrevious(u);
+      if (u == source) {
+        nextHops[row + u] = source;
+      } else if (previous == source) {
+        nextHops[row + u] = u;
+      } else {
+        nextHops[row + u] = nextHops[row + previous];
+      }
+
+      for (int k = graph.firstEdge(u); k < graph.endEdge(u); k++) {
+        state.relax(u, graph.getTarget(k), state.getDistance(u) + graph.getWeight(k), 0);
+      }
+    }
+    for (int v = 0; v < size; v++) {
+      if (nextHops[row + v] == -1) {
+        distances[row + v] = Double.POSITIVE_INFINITY;
+      }
+    }
+  }
+
+  /**
+   * @param from the index of the first vertex
+   * @param to the index of the second vertex
+   * @return the length of the shortest path between the vertices, or infinity if there is none
+   */
+  double getDistance(int from, int to) {
+    return distances[from * size + to];
+  }
+
+  /**
+   * @param from the index of the first vertex
+   * @param to the index of the second vertex, which must be reachable
+   * @return the vertex after the first one on the shortest path to the second, or the second
+   *     vertex itself if they are the same
+   */
+  int getNextHop(int from, int to) {
+    return nextHops[from * size + to];
+  }
+}
@@ -0,0 +1,293 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntPredicate;
+
+/**
+ * A static R-tree over a set of items which each have a rectangular bounding box, built with
+ * Sort-Tile-Recursive (STR) packing. STR packing sorts the boxes into vertical slices by x, then
+ * each slice by y, and groups consecutive runs into nodes. This gives nodes which are almost full
+ * and overlap very little, so a query only needs to descend into a few branches.
+ *
+ * <p>The tree is stored level by level in flat arrays. Level 0 holds the items, and the children of
+ * each node at a higher level are stored next to each other in the level below.
+ *
+ * <p>The queries only use the boxes to skip items, and the caller makes the exact decision for
+ * each item that may be hit. The boxes are expanded by a tiny margin so that rounding can never
+ * skip an item that should be tested.
+ */
+class BoxTree {
+  /** The maximum number of children of each node. */
+  private static final int NODE_CAPACITY = 8;
+  /** The amount to expand each box by, in degrees. This is about 100 ulps at these coordinates. */
+  private static final double MARGIN = 1e-12;
+
+  /** The original index of each item at level 0 */
+  private final int[] items;
+
+  // The bounds of the boxes at each level, indexed by [level][position in level]
+  private final double[][] minX;
+  private final double[][] minY;
+  private final double[][] maxX;
+  private final double[][] maxY;
+
+  // The position of the first child of each node and the number of children, indexed in the same
+  // way as the bounds. Level 0 has no children so these arrays are empty for it.
+  private final int[][] firstChild;
+  private final int[][] childCount;
+
+  /**
+   * Constructor
+   *
+   * @param minX the minimum x coordinate of each item
+   * @param minY the minimum y coordinate of each item
+   * @param maxX the maximum x coordinate of each item
+   * @param maxY the maximum y coordinate of each item
+   */
+  BoxTree(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+    var levelsMinX = new ArrayList<double[]>();
+    var levelsMinY = new ArrayList<double[]>();
+    var levelsMaxX = new ArrayList<double[]>();
+    var levelsMaxY = new ArrayList<double[]>();
+    var levelsFirstChild = new ArrayList<int[]>();
+    var levelsChildCount = new ArrayList<int[]>();
+
+    // Order the items, expanding their boxes by the margin
+    items = strOrder(minX, minY, maxX, maxY);
+    levelsMinX.add(permute(minX, items, -MARGIN));
+    levelsMinY.add(permute(minY, items, -MARGIN));
+    levelsMaxX.add(permute(maxX, items, MARGIN));
+    levelsMaxY.add(permute(maxY, items, MARGIN));
+    levelsFirstChild.add(new int[0]);
+    levelsChildCount.add(new int[0]);
+
+    // Group runs of each level into parent nodes, then sort the parents into STR order so that the
+    // next level is packed in the same way, until there is a single root
+    while (levelsMinX.get(levelsMinX.size() - 1).length > 1) {
+      var childMinX = levelsMinX.get(levelsMinX.size() - 1);
+      var childMinY = levelsMinY.get(levelsMinY.size() - 1);
+      var childMaxX = levelsMaxX.get(levelsMaxX.size() - 1);
+      var childMaxY = levelsMaxY.get(levelsMaxY.size() - 1);
+      int parents = (childMinX.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+
+      var parentMinX = new double[parents];
+      var parentMinY = new double[parents];
+      var parentMaxX = new double[parents];
+      var parentMaxY = new double[parents];
+      var parentFirstChild = new int[parents];
+      var parentChildCount = new int[parents];
+      for (int i = 0; i < parents; i++) {
+        parentFirstChild[i] = i * NODE_CAPACITY;
+        parentChildCount[i] = Math.min(NODE_CAPACITY, childMinX.length - i * NODE_CAPACITY);
+        parentMinX[i] = Double.POSITIVE_INFINITY;
+        parentMinY[i] = Double.POSITIVE_INFINITY;
+        parentMaxX[i] = Double.NEGATIVE_INFINITY;
+        parentMaxY[i] = Double.NEGATIVE_INFINITY;
+        for (int c = parentFirstChild[i]; c < parentFirstChild[i] + parentChildCount[i]; c++) {
+          parentMinX[i] = Math.min(parentMinX[i], childMinX[c]);
+          parentMinY[i] = Math.min(parentMinY[i], childMinY[c]);
+          parentMaxX[i] = Math.max(parentMaxX[i], childMaxX[c]);
+          parentMaxY[i] = Math.max(parentMaxY[i], childMaxY[c]);
+        }
+      }
+
+      var order = strOrder(parentMinX, parentMinY, parentMaxX, parentMaxY);
+      levelsMinX.add(permute(parentMinX, order, 0));
+      levelsMinY.add(permute(parentMinY, order, 0));
+      levelsMaxX.add(permute(parentMaxX, order, 0));
+      levelsMaxY.add(permute(parentMaxY, order, 0));
+      levelsFirstChild.add(permute(parentFirstChild, order));
+      levelsChildCount.add(permute(parentChildCount, order));
+    }
+
+    this.minX = levelsMinX.toArray(new double[0][]);
+    this.minY = levelsMinY.toArray(new double[0][]);
+    this.maxX = levelsMaxX.toArray(new double[0][]);
+    this.maxY = levelsMaxY.toArray(new double[0][]);
+    this.firstChild = levelsFirstChild.toArray(new int[0][]);
+    this.childCount = levelsChildCount.toArray(new int[0][]);
+  }
+
+  /**
+   * Calls the test on items whose box may touch the line segment between two points, until the
+   * test returns true.
+   *
+   * @param ax the x coordinate of the start of the line
+   * @param ay the y coordinate of the start of the line
+   * @param bx the x coordinate of the end of the line
+   * @param by the y coordinate of the end of the line
+   * @param test the exact test for an item, which is given the original index of the item
+   * @return true if the test returned true for any item, false otherwise
+   */
+  boolean anyAlongLine(double ax, double ay, double bx, double by, IntPredicate test) {
+    if (items.length == 0) {
+      return false;
+    }
+    return anyAlongLine(minX.length - 1, 0, ax, ay, bx, by, test);
+  }
+
+  private boolean anyAlongLine(
+      int level, int i, double ax, double ay, double bx, double by, IntPredicate test) {
+    if (!lineTouchesBox(level, i, ax, ay, bx, by)) {
+      return false;
+    }
+    if (level == 0) {
+      return test.test(items[i]);
+    }
+    int end = firstChild[level][i] + childCount[level][i];
+    for (int c = firstChild[level][i]; c < end; c++) {
+      if (anyAlongLine(level - 1, c, ax, ay, bx, by, test)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Calls the test on items whose box contains a point, until the test returns true.
+   *
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @param test the exact test for an item, which is given the original index of the item
+   * @return true if the test returned true for any item, false otherwise
+   */
+  boolean anyContaining(double x, double y, IntPredicate test) {
+    if (items.length == 0) {
+      return false;
+    }
+    return anyContaining(minX.length - 1, 0, x, y, test);
+  }
+
+  private boolean anyContaining(int level, int i, double x, double y, IntPredicate test) {
+    if (x < minX[level][i] || x > maxX[level][i] || y < minY[level][i] || y > maxY[level][i]) {
+      return false;
+    }
+    if (level == 0) {
+      return test.test(items[i]);
+    }
+    int end = firstChild[level][i] + childCount[level][i];
+    for (int c = firstChild[level][i]; c < end; c++) {
+      if (anyContaining(level - 1, c, x, y, test)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Calls the test on items whose box may overlap a rectangle, until the test returns true.
+   *
+   * @param left the minimum x coordinate of the rectangle
+   * @param bottom the minimum y coordinate of the rectangle
+   * @param right the maximum x coordinate of the rectangle
+   * @param top the maximum y coordinate of the rectangle
+   * @param test the test for an item, which is given the original index of the item
+   * @return true if the test returned true for any item, false otherwise
+   */
+  boolean anyInBox(double left, double bottom, double right, double top, IntPredicate test) {
+    if (items.length == 0) {
+      return false;
+    }
+    return anyInBox(minX.length - 1, 0, left, bottom, right, top, test);
+  }
+
+  private boolean anyInBox(
+      int level, int i, double left, double bottom, double right, double top, IntPredicate test) {
+    if (right < minX[level][i]
+        || left > maxX[level][i]
+        || top < minY[level][i]
+        || bottom > maxY[level][i]) {
+      return false;
+    }
+    if (level == 0) {
+      return test.test(items[i]);
+    }
+    int end = firstChild[level][i] + childCount[level][i];
+    for (int c = firstChild[level][i]; c < end; c++) {
+      if (anyInBox(level - 1, c, left, bottom, right, top, test)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines whether a line segment touches a box in the tree. It does if the bounding boxes
+   * overlap and the corners of the box are not all strictly on the same side of the line.
+   */
+  private boolean lineTouchesBox(int level, int i, double ax, double ay, double bx, double by) {
+    var left = minX[level][i];
+    var bottom = minY[level][i];
+    var right = maxX[level][i];
+    var top = maxY[level][i];
+    if (Math.max(ax, bx) < left
+        || Math.min(ax, bx) > right
+        || Math.max(ay, by) < bottom
+        || Math.min(ay, by) > top) {
+      return false;
+    }
+    var dx = bx - ax;
+    var dy = by - ay;
+    var c1 = (left - ax) * dy - (bottom - ay) * dx;
+    var c2 = (right - ax) * dy - (bottom - ay) * dx;
+    var c3 = (left - ax) * dy - (top - ay) * dx;
+    var c4 = (right - ax) * dy - (top - ay) * dx;
+    return !((c1 > 0 && c2 > 0 && c3 > 0 && c4 > 0) || (c1 < 0 && c2 < 0 && c3 < 0 && c4 < 0));
+  }
+
+  /**
+   * Sorts the items into STR order. The items are sorted by the x coordinate of their centres and
+   * cut into vertical slices, then each slice is sorted by the y coordinate of the centres. Each
+   * slice holds a whole number of nodes, so every node only contains items from a single slice.
+   *
+   * @return the original indexes of the items in STR order
+   */
+  private static int[] strOrder(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+    int n = minX.length;
+    var order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingDouble(i -> minX[i] + maxX[i]));
+
+    int leaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+    int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+    for (int from = 0; from < n; from += sliceSize) {
+      Arrays.sort(
+          order,
+          from,
+          Math.min(from + sliceSize, n),
+          Comparator.comparingDouble(i -> minY[i] + maxY[i]));
+    }
+    return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * @param values the values in their original order
+   * @param order the new order, as original indexes
+   * @param offset an amount to add to every value
+   * @return the values in the new order
+   */
+  private static double[] permute(double[] values, int[] order, double offset) {
+    var permuted = new double[order.length];
+    for (int i = 0; i < order.length; i++) {
+      permuted[i] = values[order[i]] + offset;
+    }
+    return permuted;
+  }
+
+  /**
+   * @param values the values in their original order
+   * @param order the new order, as original indexes
+   * @return the values in the new order
+   */
+  private static int[] permute(int[] values, int[] order) {
+    var permuted = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      permuted[i] = values[order[i]];
+    }
+    return permuted;
+  }
+}
@@ -0,0 +1,93 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An immutable copy of an {@link ObstacleGraph} in compressed sparse row form. The neighbours of
+ * vertex v are targets[k] for offsets[v] <= k < offsets[v + 1], and the edge to each one has
+ * weight weights[k]. Since nothing can change it, a single instance can be searched by any number
+ * of threads at once, and it is much more compact than the JGraphT graph it is built from.
+ */
+class CompactGraph {
+  /** The coordinates of each vertex */
+  private final List<Coords> vertices;
+
+  private final int[] offsets;
+  private final int[] targets;
+  private final double[] weights;
+
+  /** @param graph the graph to copy */
+  CompactGraph(ObstacleGraph graph) {
+    vertices = List.copyOf(graph.vertexSet());
+    var index = new HashMap<Coords, Integer>();
+    for (int v = 0; v < vertices.size(); v++) {
+      index.put(vertices.get(v), v);
+    }
+
+    offsets = new int[vertices.size() + 1];
+    for (int v = 0; v < vertices.size(); v++) {
+      offsets[v + 1] = offsets[v] + graph.degreeOf(vertices.get(v));
+    }
+
+    targets = new int[offsets[vertices.size()]];
+    weights = new double[offsets[vertices.size()]];
+    for (int v = 0; v < vertices.size(); v++) {
+      var vertex = vertices.get(v);
+      int k = offsets[v];
+      for (var edge : graph.edgesOf(vertex)) {
+        var source = graph.getEdgeSource(edge);
+        targets[k] = index.get(source.equals(vertex) ? graph.getEdgeTarget(edge) : source);
+        weights[k++] = graph.getEdgeWeight(edge);
+      }
+    }
+  }
+
+  /** @return the number of vertices */
+  int size() {
+    return vertices.size();
+  }
+
+  /**
+   * @param v the index of a vertex
+   * @return the coordinates of the vertex
+   */
+  Coords getVertex(int v) {
+    return vertices.get(v);
+  }
+
+  /**
+   * @param v the index of a vertex
+   * @return the position in {@link #getTarget} and {@link #getWeight} of the first edge of the
+   *     vertex
+   */
+  int firstEdge(int v) {
+    return offsets[v];
+  }
+
+  /**
+   * @param v the index of a vertex
+   * @return the position after the last edge of the vertex
+   */
+  int endEdge(int v) {
+    return offsets[v + 1];
+  }
+
+  /**
+   * @param k the position of an edge
+   * @return the index of the vertex at the other end of the edge
+   */
+  int getTarget(int k) {
+    return targets[k];
+  }
+
+  /**
+   * @param k the position of an edge
+   * @return the weight of the edge
+   */
+  double getWeight(int k) {
+    return weights[k];
+  }
+}
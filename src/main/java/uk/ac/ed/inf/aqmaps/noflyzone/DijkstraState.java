@@ -0,0 +1,150 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import java.util.Arrays;
+
+/**
+ * The state of a run of Dijkstra's algorithm or A* search over the obstacle graph. The arrays are
+ * reused by later searches on the same thread to avoid allocating them each time. The priority
+ * queue is a binary heap of primitive keys and vertices. Rather than decreasing the key of a
+ * vertex which is already in the heap, it is pushed again, and the stale copy is skipped when it
+ * is popped.
+ */
+class DijkstraState {
+  private final double[] distance;
+  private final int[] previous;
+  private final boolean[] settled;
+
+  private double[] heapKeys = new double[64];
+  private int[] heapVertices = new int[64];
+  private int heapSize;
+  private int settledCount;
+
+  /** @param size the number of vertices, including any virtual start and end points */
+  DijkstraState(int size) {
+    distance = new double[size];
+    previous = new int[size];
+    settled = new boolean[size];
+  }
+
+  /**
+   * Clears the results of the previous search and starts a new one.
+   *
+   * @param source the vertex to search from
+   * @param key the key of the source in the heap, which is its estimated distance to the target
+   */
+  void start(int source, double key) {
+    Arrays.fill(distance, Double.POSITIVE_INFINITY);
+    Arrays.fill(previous, -1);
+    Arrays.fill(settled, false);
+    heapSize = 0;
+    settledCount = 0;
+    distance[source] = 0;
+    push(key, source);
+  }
+
+  /**
+   * Marks a vertex as settled, meaning that its shortest distance is known.
+   *
+   * @param v the vertex
+   * @return true if the vertex was not already settled, false otherwise
+   */
+  boolean settle(int v) {
+    if (settled[v]) {
+      return false;
+    }
+    settled[v] = true;
+    settledCount++;
+    return true;
+  }
+
+  /** @return the number of vertices settled since the search started */
+  int getSettledCount() {
+    return settledCount;
+  }
+
+  /**
+   * @param v a vertex
+   * @return the length of the shortest path found to the vertex so far, or infinity if there is
+   *     none
+   */
+  double getDistance(int v) {
+    return distance[v];
+  }
+
+  /**
+   * @param v a vertex
+   * @return the vertex before it on the shortest path found so far, or -1 if there is none
+   */
+  int getPrevious(int v) {
+    return previous[v];
+  }
+
+  /**
+   * Records a path to vertex v through vertex u if it is shorter than the best found so far.
+   *
+   * @param u the vertex the path comes from
+   * @param v the vertex the path goes to
+   * @param newDistance the length of the path
+   * @param heuristic a lower bound on the distance from vertex v to the target, which is added to
+   *     the length of the path to give its key in the heap, or 0 for Dijkstra's algorithm
+   */
+  void relax(int u, int v, double newDistance, double heuristic) {
+    if (newDistance < distance[v]) {
+      distance[v] = newDistance;
+      previous[v] = u;
+      push(newDistance + heuristic, v);
+    }
+  }
+
+  /** @return true if the heap is empty, false otherwise */
+  boolean isEmpty() {
+    return heapSize == 0;
+  }
+
+  /**
+   * Adds a vertex to the heap.
+   *
+   * @param key the distance to the vertex, plus the heuristic for A* search
+   * @param vertex the vertex
+   */
+  private void push(double key, int vertex) {
+    if (heapSize == heapKeys.length) {
+      heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+      heapVertices = Arrays.copyOf(heapVertices, heapSize * 2);
+    }
+    // Sift the new entry up from the bottom of the heap
+    int i = heapSize++;
+    while (i > 0 && heapKeys[(i - 1) / 2] > key) {
+      heapKeys[i] = heapKeys[(i - 1) / 2];
+      heapVertices[i] = heapVertices[(i - 1) / 2];
+      i = (i - 1) / 2;
+    }
+    heapKeys[i] = key;
+    heapVertices[i] = vertex;
+  }
+
+  /** @return the vertex with the smallest key, which is removed from the heap */
+  int pop() {
+    int top = heapVertices[0];
+    var key = heapKeys[--heapSize];
+    var vertex = heapVertices[heapSize];
+
+    // Sift the last entry down from the top of the heap
+    int i = 0;
+    while (2 * i + 1 < heapSize) {
+      int child = 2 * i + 1;
+      if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+        child++;
+      }
+      if (heapKeys[child] >= key) {
+        break;
+      }
+      heapKeys[i] = heapKeys[child];
+      heapVertices[i] = heapVertices[child];
+      i = child;
+    }
+    heapKeys[i] = key;
+    heapVertices[i] = vertex;
+    return top;
+  }
+}
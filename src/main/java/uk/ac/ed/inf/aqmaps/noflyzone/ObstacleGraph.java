@@ -5,7 +5,11 @@ import org.jgrapht.graph.SimpleWeightedGraph;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
 import uk.ac.ed.inf.aqmaps.geometry.Polygon;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /** A graph of the vertices of the obstacles and edges between them if they have line of sight. */
 public class ObstacleGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEdge> {
@@ -13,10 +17,17 @@ public class ObstacleGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEd
   /**
    * Constructor
    *
-   * @param outlinePoints the points which form the outline of the obstacle polygons
    * @param obstacles the obstacles to prepare the graph for
+   * @param outlinePoints the points which form the outline of the obstacle polygons
+   * @param executor the executor to find the edges from each point in parallel on, or null to find
+   *     them on this thread
+   * @param edgeFilter decides which of the pairs of points with line of sight get an edge
    */
-  private ObstacleGraph(Obstacles obstacles, List<Coords> outlinePoints) {
+  private ObstacleGraph(
+      Obstacles obstacles,
+      List<Coords> outlinePoints,
+      Executor executor,
+      EdgeFilter edgeFilter) {
     super(DefaultWeightedEdge.class);
 
     // Add all of the vertices from the outline polygons
@@ -24,12 +35,22 @@ public class ObstacleGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEd
       addVertex(point);
     }
 
+    // Find the earlier points visible from each point. The collision check only tests the segments
+    // near each line, so checking every pair is fast. The work for each point is independent, so
+    // it can be split between the threads of the executor, but the edges must be added to the
+    // graph afterwards on a single thread.
+    var visible = new int[outlinePoints.size()][];
+    ParallelLoop.forEachIndex(
+        executor,
+        outlinePoints.size(),
+        i -> visible[i] = visibleBefore(outlinePoints, obstacles, i));
+
     // Create edges between all pairs of points that have line of sight
     for (int i = 0; i < outlinePoints.size(); i++) {
-      for (int j = 0; j < i; j++) {
-        var start = outlinePoints.get(i);
-        var end = outlinePoints.get(j);
-        if (!obstacles.lineCollision(start, end)) {
+      for (int j : visible[i]) {
+        if (edgeFilter.keep(i, j)) {
+          var start = outlinePoints.get(i);
+          var end = outlinePoints.get(j);
           var edge = addEdge(start, end);
           setEdgeWeight(edge, start.distance(end));
         }
@@ -37,6 +58,23 @@ public class ObstacleGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEd
     }
   }
 
+  /**
+   * Finds the points before the source point in the list which have line of sight to it by
+   * checking each of them in turn.
+   *
+   * @param outlinePoints the points which form the outline of the obstacle polygons
+   * @param obstacles the obstacles which block line of sight
+   * @param source the index of the source point
+   * @return the indexes of the earlier points which are visible from the source, in increasing order
+   */
+  private static int[] visibleBefore(
+      List<Coords> outlinePoints, Obstacles obstacles, int source) {
+    var start = outlinePoints.get(source);
+    return IntStream.range(0, source)
+        .filter(j -> !obstacles.lineCollision(start, outlinePoints.get(j)))
+        .toArray();
+  }
+
   /**
    * Prepare a weighted graph containing all points which form an outline around the polygons as
    * vertices, and edges connecting them if they have line of sight, which have a weight equal to
@@ -50,6 +88,135 @@ public class ObstacleGraph extends SimpleWeightedGraph<Coords, DefaultWeightedEd
    * @return a graph representation of the obstacles
    */
   public static ObstacleGraph prepareGraph(List<Coords> outlinePoints, Obstacles obstacles) {
-    return new ObstacleGraph(obstacles, outlinePoints);
+    return prepareGraph(outlinePoints, obstacles, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Prepare the obstacle graph as in {@link #prepareGraph(List, Obstacles)}, finding the edges on
+   * the given executor.
+   *
+   * @param outlinePoints the points which form the outline of the obstacle polygons
+   * @param obstacles the obstacles to prepare the graph for
+   * @param executor the executor to find the edges from each point in parallel on, or null to find
+   *     them on this thread
+   * @return a graph representation of the obstacles
+   */
+  public static ObstacleGraph prepareGraph(
+      List<Coords> outlinePoints, Obstacles obstacles, Executor executor) {
+    return new ObstacleGraph(obstacles, outlinePoints, executor, (i, j) -> true);
+  }
+
+  /**
+   * Prepare a reduced version of the obstacle graph, which only contains the outline points of the
+   * convex corners of the polygons, and only the edges which are tangent to the polygons at both
+   * ends. These are the only vertices and edges which a shortest path around the obstacles can use,
+   * so shortest paths have the same length as in the full graph from {@link #prepareGraph(List,
+   * Obstacles)}, but the graph is much smaller and faster to search. See {@link
+   * Polygon#isConvexVertex} and {@link Polygon#isTangentAtVertex}. This only holds when no sides
+   * of the polygons cross, since otherwise paths can bend where they cross, so then the full graph
+   * is returned instead.
+   *
+   * @param polygons the obstacle polygons
+   * @param obstacles the obstacles to prepare the graph for
+   * @return a reduced graph representation of the obstacles
+   */
+  public static ObstacleGraph prepareReducedGraph(List<Polygon> polygons, Obstacles obstacles) {
+    return prepareReducedGraph(polygons, obstacles, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Prepare the reduced obstacle graph as in {@link #prepareReducedGraph(List, Obstacles)}, finding
+   * the edges on the given executor.
+   *
+   * @param polygons the obstacle polygons
+   * @param obstacles the obstacles to prepare the graph for
+   * @param executor the executor to find the edges from each point in parallel on
+   * @return a reduced graph representation of the obstacles
+   */
+  public static ObstacleGraph prepareReducedGraph(
+      List<Polygon> polygons, Obstacles obstacles, Executor executor) {
+    // A path around polygons whose sides cross can bend where they cross rather than at a corner,
+    // and then it can need edges which are not tangent at the nearby corners, so the whole graph
+    // is kept
+    if (anySidesCross(polygons)) {
+      var outlinePoints = new ArrayList<Coords>();
+      for (var polygon : polygons) {
+        outlinePoints.addAll(polygon.generateOutlinePoints());
+      }
+      return prepareGraph(outlinePoints, obstacles, executor);
+    }
+
+    // Keep the outline point of each convex corner, along with where it came from
+    var outlinePoints = new ArrayList<Coords>();
+    var pointPolygon = new ArrayList<Polygon>();
+    var pointVertex = new ArrayList<Integer>();
+    for (var polygon : polygons) {
+      var polygonOutline = polygon.generateOutlinePoints();
+      for (int i = 0; i < polygonOutline.size(); i++) {
+        if (polygon.isConvexVertex(i)) {
+          outlinePoints.add(polygonOutline.get(i));
+          pointPolygon.add(polygon);
+          pointVertex.add(i);
+        }
+      }
+    }
+
+    // The tangents are checked between the original vertices rather than the outline points, so
+    // that an edge along a side of a polygon is exactly in line with the side
+    EdgeFilter bitangent =
+        (i, j) -> {
+          var first = pointPolygon.get(i);
+          var second = pointPolygon.get(j);
+          var firstVertex = pointVertex.get(i);
+          var secondVertex = pointVertex.get(j);
+          return first.isTangentAtVertex(firstVertex, second.getPoints().get(secondVertex))
+              && second.isTangentAtVertex(secondVertex, first.getPoints().get(firstVertex));
+        };
+    return new ObstacleGraph(obstacles, outlinePoints, executor, bitangent);
+  }
+
+  /**
+   * @param polygons the obstacle polygons
+   * @return true if any of the polygons is not simple or has a side which crosses a side of
+   *     another polygon, false otherwise
+   */
+  private static boolean anySidesCross(List<Polygon> polygons) {
+    for (int p = 0; p < polygons.size(); p++) {
+      if (!polygons.get(p).isSimple()) {
+        return true;
+      }
+      for (int q = p + 1; q < polygons.size(); q++) {
+        if (polygons.get(p).getBoundingBox().intersects(polygons.get(q).getBoundingBox())
+            && sidesCross(polygons.get(p), polygons.get(q))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param first a polygon
+   * @param second another polygon
+   * @return true if any side of the first polygon intersects a side of the second, false otherwise
+   */
+  private static boolean sidesCross(Polygon first, Polygon second) {
+    var points = first.getPoints();
+    for (int i = 0; i < points.size(); i++) {
+      if (second.lineCollision(points.get(i), points.get((i + 1) % points.size()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Decides whether a pair of points which have line of sight should be joined by an edge */
+  private interface EdgeFilter {
+    /**
+     * @param i the index of the first point
+     * @param j the index of the second point
+     * @return true if there should be an edge between the points, false otherwise
+     */
+    boolean keep(int i, int j);
   }
 }
@@ -1,15 +1,20 @@
 package uk.ac.ed.inf.aqmaps.noflyzone;
 
-import org.jgrapht.GraphPath;
-import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
-import org.jgrapht.graph.DefaultWeightedEdge;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibilityCache.CallSite;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Handles obstacle evasion. Uses Obstacles and an ObstacleGraph to find paths between points which
  * do not collides with any obstacles.
+ *
+ * <p>The graph is never modified, instead the start and end points of each query are attached to
+ * it virtually, see {@link ShortestPathMethod} for the ways the paths can be found. Each thread has
+ * its own scratch arrays, so a single instance can be used by any number of threads at once.
  */
 public class ObstaclePathfinder {
   /**
@@ -17,23 +22,36 @@ public class ObstaclePathfinder {
    * and edges connecting them if they have line of sight, which have a weight equal to the distance
    * between them.
    */
-  private final ObstacleGraph graph;
+  private final CompactGraph graph;
 
   private final Obstacles obstacles;
 
+  /** The shortest paths between all pairs of vertices, or null if the graph is searched instead */
+  private final AllPairsPaths allPairsPaths;
+
+  /** Whether the graph searches are A* searches rather than Dijkstra's algorithm */
+  private final boolean useHeuristic;
+
+  /** The scratch space for the searches of each thread, see {@link DijkstraState} */
+  private final ThreadLocal<DijkstraState> searchStates;
+
   /**
-   * Construct an Obstacle evader with the given graph and obstacles. Package private since we only
-   * want Obstacles to be calling this to ensure thread safety - multiple instances of this running
-   * in parallel with the same obstacle graph is not thread safe and causes illegal concurrent
-   * modification. There are other things that probably could be made package private in this
-   * program, but this is the only time where it is truly necessary.
+   * Construct an Obstacle evader with the given graph and obstacles. Package private since only
+   * Obstacles should need to create one, and it shares a single instance between all of its users.
    *
    * @param graph a graph of the obstacles
    * @param obstacles the Obstacles
+   * @param method the way to find the shortest paths
+   * @param executor the executor to compute the all pairs shortest paths on, if they are used
    */
-  ObstaclePathfinder(ObstacleGraph graph, Obstacles obstacles) {
-    this.graph = graph;
+  ObstaclePathfinder(
+      ObstacleGraph graph, Obstacles obstacles, ShortestPathMethod method, Executor executor) {
+    this.graph = new CompactGraph(graph);
     this.obstacles = obstacles;
+    this.allPairsPaths =
+        method == ShortestPathMethod.ALL_PAIRS ? new AllPairsPaths(this.graph, executor) : null;
+    this.useHeuristic = method == ShortestPathMethod.A_STAR;
+    this.searchStates = ThreadLocal.withInitial(() -> new DijkstraState(this.graph.size() + 2));
   }
 
   /**
@@ -42,16 +60,64 @@ public class ObstaclePathfinder {
    *
    * @param start the starting point
    * @param end the ending point
-   * @return a list of points specifying the route
+   * @return a list of points specifying the route, or null if there is no route
    */
   public List<Coords> getPathBetweenPoints(Coords start, Coords end) {
-    if (!obstacles.lineCollision(start, end)) {
+    return getPathBetweenPoints(start, end, null, null);
+  }
+
+  /**
+   * Find the shortest path between the start and end points, navigating around obstacles if
+   * necessary, using the vertices visible from them if they are known.
+   *
+   * @param start the starting point
+   * @param end the ending point
+   * @param startVisible the vertices visible from the start point, found with {@link
+   *     #getVisibleVertices}, or null to check line of sight as needed
+   * @param endVisible the vertices visible from the end point, or null to check line of sight as
+   *     needed
+   * @return a list of points specifying the route, or null if there is no route
+   */
+  public List<Coords> getPathBetweenPoints(
+      Coords start, Coords end, VisibleVertices startVisible, VisibleVertices endVisible) {
+    checkVisibleVertices(startVisible);
+    checkVisibleVertices(endVisible);
+    if (!obstacles.lineCollision(start, end, CallSite.DIRECT_PATH)) {
       // Return a direct path if it does not collide with anything
       // This shortcut decreases the runtime of this method by about 30 times
       return List.of(start, end);
     }
 
-    return getShortestPath(start, end).getVertexList();
+    var path = new ArrayList<Coords>();
+    if (allPairsPaths != null) {
+      var ends = findBestVertices(start, end, startVisible, endVisible);
+      if (ends == null) {
+        return null;
+      }
+      // Follow the next hops from the vertex seen from the start to the one seen from the end
+      path.add(start);
+      for (int v = ends[0]; v != ends[1]; v = allPairsPaths.getNextHop(v, ends[1])) {
+        path.add(graph.getVertex(v));
+      }
+      path.add(graph.getVertex(ends[1]));
+      path.add(end);
+      return path;
+    }
+
+    var state = searchStates.get();
+    runSearch(state, start, end, startVisible, endVisible);
+    int startVertex = graph.size();
+    int endVertex = startVertex + 1;
+    if (state.getPrevious(endVertex) == -1) {
+      return null;
+    }
+
+    // Follow the previous vertices back from the end
+    for (int v = endVertex; v != -1; v = state.getPrevious(v)) {
+      path.add(v == startVertex ? start : v == endVertex ? end : graph.getVertex(v));
+    }
+    Collections.reverse(path);
+    return path;
   }
 
   /**
@@ -60,59 +126,207 @@ public class ObstaclePathfinder {
    *
    * @param start the starting point
    * @param end the ending point
-   * @return the length of the path in degrees
+   * @return the length of the path in degrees, or infinity if there is no path
    */
   public double getShortestPathLength(Coords start, Coords end) {
-    if (!obstacles.lineCollision(start, end)) {
+    return getShortestPathLength(start, end, null, null);
+  }
+
+  /**
+   * Find the length of the shortest path between the start and end points, navigating around
+   * obstacles if necessary, using the vertices visible from them if they are known.
+   *
+   * @param start the starting point
+   * @param end the ending point
+   * @param startVisible the vertices visible from the start point, found with {@link
+   *     #getVisibleVertices}, or null to check line of sight as needed
+   * @param endVisible the vertices visible from the end point, or null to check line of sight as
+   *     needed
+   * @return the length of the path in degrees, or infinity if there is no path
+   */
+  public double getShortestPathLength(
+      Coords start, Coords end, VisibleVertices startVisible, VisibleVertices endVisible) {
+    checkVisibleVertices(startVisible);
+    checkVisibleVertices(endVisible);
+    if (!obstacles.lineCollision(start, end, CallSite.DIRECT_PATH)) {
       // Return the distance between the points if the direct path does not collide with anything
       return start.distance(end);
     }
 
-    return getShortestPath(start, end).getWeight();
+    if (allPairsPaths != null) {
+      var ends = findBestVertices(start, end, startVisible, endVisible);
+      return ends == null
+          ? Double.POSITIVE_INFINITY
+          : start.distance(graph.getVertex(ends[0]))
+              + allPairsPaths.getDistance(ends[0], ends[1])
+              + graph.getVertex(ends[1]).distance(end);
+    }
+
+    var state = searchStates.get();
+    runSearch(state, start, end, startVisible, endVisible);
+    return state.getDistance(graph.size() + 1);
+  }
+
+  /**
+   * Gets the set of obstacle graph vertices which have line of sight to a point, to be passed to
+   * the queries which start or end at it. Line of sight to each vertex is only checked once a query
+   * needs it, so this is cheap to call for points which may never need it.
+   *
+   * @param point a point
+   * @return the vertices visible from the point
+   */
+  public VisibleVertices getVisibleVertices(Coords point) {
+    return new VisibleVertices(graph, obstacles, point);
   }
 
   /**
-   * Computes a GraphPath containing the shortest path from the start to the end coordinates,
-   * navigating around obstacles if required.
+   * Gives the number of vertices, including the start and end points, which were settled by the
+   * last graph search on the calling thread. This is for measuring how much work the searches do,
+   * queries with a direct path or using the all pairs shortest paths do not search the graph.
+   *
+   * @return the number of settled vertices, or 0 if this thread has not searched the graph
+   */
+  public int getLastSettledCount() {
+    return searchStates.get().getSettledCount();
+  }
+
+  /**
+   * Finds the pair of vertices to go through using the all pairs shortest paths. The path goes
+   * from the start to a vertex it can see, along the shortest path to a vertex that the end can
+   * see, and then to the end. This tries every pair of such vertices and picks the shortest.
    *
    * @param start the start point
    * @param end the end point
-   * @return a GraphPath
+   * @param startVisible the vertices visible from the start point, or null if they are not known
+   * @param endVisible the vertices visible from the end point, or null if they are not known
+   * @return the vertex seen from the start and the vertex seen from the end, or null if there is
+   *     no path
    */
-  private GraphPath<Coords, DefaultWeightedEdge> getShortestPath(Coords start, Coords end) {
-    // Add the start and end points and all possible edges to and from them
-    graph.addVertex(start);
-    graph.addVertex(end);
-    addEdgeIfHasLineOfSight(start, end);
-    for (var vertex : graph.vertexSet()) {
-      if (vertex != start && vertex != end) { // Avoid self loops and duplication
-        addEdgeIfHasLineOfSight(start, vertex);
-        addEdgeIfHasLineOfSight(end, vertex);
+  private int[] findBestVertices(
+      Coords start, Coords end, VisibleVertices startVisible, VisibleVertices endVisible) {
+    int n = graph.size();
+    var fromStart = new int[n];
+    var fromEnd = new int[n];
+    int startCount = 0;
+    int endCount = 0;
+    for (int v = 0; v < n; v++) {
+      if (isVisible(start, startVisible, v)) {
+        fromStart[startCount++] = v;
+      }
+      if (isVisible(end, endVisible, v)) {
+        fromEnd[endCount++] = v;
       }
     }
 
-    // Run Dijkstra's Algorithm from JGraphT
-    var shortestPathAlgorithm = new DijkstraShortestPath<>(graph);
-    var path = shortestPathAlgorithm.getPath(start, end);
-
-    // Remove the start and end points from the graph for later reuse
-    graph.removeVertex(start);
-    graph.removeVertex(end);
-    return path;
+    int[] best = null;
+    double bestLength = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < startCount; i++) {
+      var startLength = start.distance(graph.getVertex(fromStart[i]));
+      for (int j = 0; j < endCount; j++) {
+        var length =
+            startLength
+                + allPairsPaths.getDistance(fromStart[i], fromEnd[j])
+                + graph.getVertex(fromEnd[j]).distance(end);
+        if (length < bestLength) {
+          bestLength = length;
+          best = new int[] {fromStart[i], fromEnd[j]};
+        }
+      }
+    }
+    return best;
   }
 
   /**
-   * Adds an edge between points A and B if they have line of sight to each other, or in other words
-   * if the line between them does not collide with an obstacle. Sets the edge weight to the
-   * distance between the points.
+   * Runs Dijkstra's algorithm or A* search from the start to the end point. The start and end
+   * points are given the two indexes after the graph vertices, and the edges to them are found by
+   * checking line of sight, just as if they had been added to the graph. The edges into the end
+   * point are only checked for the vertices which the search reaches before the end, and the search
+   * stops as soon as the end point is reached. The results are left in the state.
    *
-   * @param A point A
-   * @param B point B
+   * <p>The A* heuristic is the straight line distance to the end point. Since every edge weight is
+   * the straight line distance between its ends, this is consistent, so a vertex is never reached
+   * by a shorter path after it has been settled.
+   *
+   * @param state the scratch space to use
+   * @param start the start point
+   * @param end the end point
+   * @param startVisible the vertices visible from the start point, or null if they are not known
+   * @param endVisible the vertices visible from the end point, or null if they are not known
+   */
+  private void runSearch(
+      DijkstraState state,
+      Coords start,
+      Coords end,
+      VisibleVertices startVisible,
+      VisibleVertices endVisible) {
+    int n = graph.size();
+    int startVertex = n;
+    int endVertex = n + 1;
+
+    state.start(startVertex, heuristic(start, end));
+    while (!state.isEmpty()) {
+      int u = state.pop();
+      if (!state.settle(u)) {
+        continue;
+      }
+      if (u == endVertex) {
+        return;
+      }
+
+      var distance = state.getDistance(u);
+      if (u == startVertex) {
+        // The edges out of the start point are found by checking line of sight to every vertex
+        for (int v = 0; v < n; v++) {
+          if (isVisible(start, startVisible, v)) {
+            var vertex = graph.getVertex(v);
+            state.relax(u, v, distance + start.distance(vertex), heuristic(vertex, end));
+          }
+        }
+        if (!obstacles.lineCollision(start, end, CallSite.DIRECT_PATH)) {
+          state.relax(u, endVertex, distance + start.distance(end), 0);
+        }
+        continue;
+      }
+
+      for (int k = graph.firstEdge(u); k < graph.endEdge(u); k++) {
+        int v = graph.getTarget(k);
+        state.relax(u, v, distance + graph.getWeight(k), heuristic(graph.getVertex(v), end));
+      }
+      if (isVisible(end, endVisible, u)) {
+        state.relax(u, endVertex, distance + end.distance(graph.getVertex(u)), 0);
+      }
+    }
+  }
+
+  /**
+   * @param point a point
+   * @param visible the vertices visible from the point, or null if they are not known
+   * @param v the index of a vertex
+   * @return true if the point has line of sight to the vertex, false otherwise
    */
-  private void addEdgeIfHasLineOfSight(Coords A, Coords B) {
-    if (!obstacles.lineCollision(A, B)) {
-      var edge = graph.addEdge(A, B);
-      graph.setEdgeWeight(edge, A.distance(B));
+  private boolean isVisible(Coords point, VisibleVertices visible, int v) {
+    return visible != null
+        ? visible.contains(v)
+        : !obstacles.lineCollision(point, graph.getVertex(v), CallSite.OUTLINE_VERTEX);
+  }
+
+  /**
+   * @param visible the vertices visible from a point, or null
+   * @throws IllegalArgumentException if the vertices were found by a different pathfinder
+   */
+  private void checkVisibleVertices(VisibleVertices visible) {
+    if (visible != null && !visible.belongsTo(graph)) {
+      throw new IllegalArgumentException("visible vertices are from a different pathfinder");
     }
   }
+
+  /**
+   * @param point a point on the way to the end point
+   * @param end the end point
+   * @return the lower bound on the remaining distance used by A* search, or 0 for Dijkstra's
+   *     algorithm
+   */
+  private double heuristic(Coords point, Coords end) {
+    return useHeuristic ? point.distance(end) : 0;
+  }
 }
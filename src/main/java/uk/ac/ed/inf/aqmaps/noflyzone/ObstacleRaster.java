@@ -0,0 +1,164 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.function.Predicate;
+
+/**
+ * A bitmap over the confinement area which records whether each cell is free, blocked by an
+ * obstacle, or on the boundary of an obstacle. Most points can be classified by looking up their
+ * cell, and only the points in boundary cells need the exact test with {@link
+ * uk.ac.ed.inf.aqmaps.geometry.Polygon#contains}.
+ *
+ * <p>A cell is a boundary cell if any obstacle segment passes within a small margin of it. Every
+ * other cell lies entirely inside or entirely outside the obstacles, so testing a single point in
+ * it gives the answer for the whole cell, and the answer is exactly the same as the exact test. The
+ * cells are stored with 2 bits each, and their size is chosen to fit in a given amount of memory.
+ */
+class ObstacleRaster {
+  /** A cell which is not inside any obstacle */
+  static final int FREE = 0;
+  /** A cell which is entirely inside an obstacle */
+  static final int BLOCKED = 1;
+  /** A cell which an obstacle segment passes near, so its points must be tested exactly */
+  static final int BOUNDARY = 2;
+
+  /**
+   * Cells are marked as boundary cells if a segment passes within this fraction of a cell width of
+   * them, so that floating point error in finding the cell of a point can never matter.
+   */
+  private static final double CELL_MARGIN = 1e-6;
+
+  private final double minX;
+  private final double minY;
+  private final double cellWidth;
+  private final double cellHeight;
+  private final int columns;
+  private final int rows;
+
+  /** The class of each cell, 32 cells to a long, in rows from south to north */
+  private final long[] cells;
+
+  /**
+   * Constructor
+   *
+   * @param obstacleSegments the obstacle segments
+   * @param topLeft the northwest corner of the area covered by the raster
+   * @param bottomRight the southeast corner of the area covered by the raster
+   * @param maxBytes the maximum memory to use for the cells, which decides their size
+   * @param collides the exact test for whether a point is inside an obstacle
+   */
+  ObstacleRaster(
+      ObstacleSegments obstacleSegments,
+      Coords topLeft,
+      Coords bottomRight,
+      int maxBytes,
+      Predicate<Coords> collides) {
+    minX = topLeft.x;
+    minY = bottomRight.y;
+    var width = bottomRight.x - topLeft.x;
+    var height = topLeft.y - bottomRight.y;
+
+    // Pick roughly square cells, as many as fit in the memory at 2 bits each
+    var cellCount = Math.min(4L * maxBytes, Integer.MAX_VALUE);
+    columns = (int) Math.max(1, Math.min(cellCount, Math.sqrt(cellCount * width / height)));
+    rows = (int) Math.max(1, cellCount / columns);
+    cellWidth = width / columns;
+    cellHeight = height / rows;
+    cells = new long[(int) (((long) columns * rows + 31) / 32)];
+
+    markBoundaryCells(obstacleSegments);
+
+    // Every cell between two boundary cells in a row has the same class, since no segment passes
+    // between them, so only the first cell of each run needs to be tested
+    for (int row = 0; row < rows; row++) {
+      int runClass = BOUNDARY;
+      for (int column = 0; column < columns; column++) {
+        int cell = row * columns + column;
+        if (get(cell) == BOUNDARY) {
+          runClass = BOUNDARY;
+          continue;
+        }
+        if (runClass == BOUNDARY) {
+          var centre =
+              new Coords(minX + (column + 0.5) * cellWidth, minY + (row + 0.5) * cellHeight);
+          runClass = collides.test(centre) ? BLOCKED : FREE;
+        }
+        set(cell, runClass);
+      }
+    }
+  }
+
+  /**
+   * Marks every cell which a segment passes near as a boundary cell. For each row that a segment
+   * crosses, the part of the segment inside the row is found and the cells it spans are marked.
+   *
+   * @param obstacleSegments the obstacle segments
+   */
+  private void markBoundaryCells(ObstacleSegments obstacleSegments) {
+    var segments = obstacleSegments.getSegments();
+    var marginX = CELL_MARGIN * cellWidth;
+    var marginY = CELL_MARGIN * cellHeight;
+    for (int s = 0; s < segments.size(); s++) {
+      var x1 = segments.getX1(s);
+      var y1 = segments.getY1(s);
+      var x2 = segments.getX2(s);
+      var y2 = segments.getY2(s);
+      int firstRow = clampRow(Math.floor((Math.min(y1, y2) - marginY - minY) / cellHeight));
+      int lastRow = clampRow(Math.floor((Math.max(y1, y2) + marginY - minY) / cellHeight));
+      for (int row = firstRow; row <= lastRow; row++) {
+        // Clip the segment to the row, widened by the margin
+        var bottom = minY + row * cellHeight - marginY;
+        var top = minY + (row + 1) * cellHeight + marginY;
+        double startX;
+        double endX;
+        if (y1 == y2) {
+          startX = x1;
+          endX = x2;
+        } else {
+          var t1 = Math.max(0, Math.min(1, (bottom - y1) / (y2 - y1)));
+          var t2 = Math.max(0, Math.min(1, (top - y1) / (y2 - y1)));
+          startX = x1 + t1 * (x2 - x1);
+          endX = x1 + t2 * (x2 - x1);
+        }
+        int firstColumn =
+            clampColumn(Math.floor((Math.min(startX, endX) - marginX - minX) / cellWidth));
+        int lastColumn =
+            clampColumn(Math.floor((Math.max(startX, endX) + marginX - minX) / cellWidth));
+        for (int column = firstColumn; column <= lastColumn; column++) {
+          set(row * columns + column, BOUNDARY);
+        }
+      }
+    }
+  }
+
+  /**
+   * Classifies a point inside the area covered by the raster.
+   *
+   * @param point the point
+   * @return {@link #FREE} or {@link #BLOCKED} if the point is definitely outside or inside the
+   *     obstacles, or {@link #BOUNDARY} if it needs to be tested exactly
+   */
+  int classify(Coords point) {
+    int column = clampColumn(Math.floor((point.x - minX) / cellWidth));
+    int row = clampRow(Math.floor((point.y - minY) / cellHeight));
+    return get(row * columns + column);
+  }
+
+  private int get(int cell) {
+    return (int) (cells[cell >>> 5] >>> ((cell & 31) << 1)) & 3;
+  }
+
+  private void set(int cell, int cellClass) {
+    int shift = (cell & 31) << 1;
+    cells[cell >>> 5] = (cells[cell >>> 5] & ~(3L << shift)) | ((long) cellClass << shift);
+  }
+
+  private int clampColumn(double column) {
+    return (int) Math.max(0, Math.min(columns - 1, column));
+  }
+
+  private int clampRow(double row) {
+    return (int) Math.max(0, Math.min(rows - 1, row));
+  }
+}
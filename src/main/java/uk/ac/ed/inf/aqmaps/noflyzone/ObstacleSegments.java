@@ -0,0 +1,87 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.FixedPoint;
+import uk.ac.ed.inf.aqmaps.geometry.FixedSegmentArray;
+import uk.ac.ed.inf.aqmaps.geometry.Polygon;
+import uk.ac.ed.inf.aqmaps.geometry.SegmentArray;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every edge of every obstacle polygon in one {@link SegmentArray}, along with the polygon that each
+ * one belongs to. The spatial indexes refer to segments by their index in this class.
+ */
+class ObstacleSegments {
+  /** Every obstacle segment, from all of the polygons */
+  private final SegmentArray segments;
+
+  /** The index of the polygon that each segment belongs to */
+  private final int[] segmentPolygon;
+
+  /** The bounding box of each polygon, see {@link Polygon#lineCollision} */
+  private final Rectangle2D[] boundingBoxes;
+
+  /** The segments in fixed point for exact intersection tests, or null to use floating point */
+  private final FixedSegmentArray fixedSegments;
+
+  /**
+   * @param polygons the obstacle polygons
+   * @param fixedPoint true to test for intersections exactly with {@link FixedSegmentArray}
+   */
+  ObstacleSegments(List<Polygon> polygons, boolean fixedPoint) {
+    var polygonSegments = new ArrayList<SegmentArray>();
+    for (var polygon : polygons) {
+      polygonSegments.add(polygon.getSegmentArray());
+    }
+    segments = SegmentArray.concat(polygonSegments);
+    fixedSegments = fixedPoint ? new FixedSegmentArray(segments) : null;
+
+    segmentPolygon = new int[segments.size()];
+    boundingBoxes = new Rectangle2D[polygons.size()];
+    int s = 0;
+    for (int p = 0; p < polygons.size(); p++) {
+      boundingBoxes[p] = polygons.get(p).getBoundingBox();
+      for (int i = 0; i < polygonSegments.get(p).size(); i++) {
+        segmentPolygon[s++] = p;
+      }
+    }
+  }
+
+  /**
+   * Determines whether the line between the start and end points collides with a segment. As in
+   * {@link Polygon#lineCollision}, the line only collides if it also enters the interior of the
+   * bounding box of the segment's polygon, so that the results are exactly the same. In fixed point
+   * mode the segment test is exact instead, which can differ for lines which only just touch.
+   *
+   * @param s the index of the segment
+   * @param start the coordinates of the start point
+   * @param end the coordinates of the end point
+   * @return true if the line collides with the segment, false otherwise
+   */
+  boolean collides(int s, Coords start, Coords end) {
+    var intersects =
+        fixedSegments == null
+            ? segments.intersects(s, start.x, start.y, end.x, end.y)
+            : fixedSegments.intersects(
+                s,
+                FixedPoint.fromDegrees(start.x),
+                FixedPoint.fromDegrees(start.y),
+                FixedPoint.fromDegrees(end.x),
+                FixedPoint.fromDegrees(end.y));
+    return intersects
+        && boundingBoxes[segmentPolygon[s]].intersectsLine(start.x, start.y, end.x, end.y);
+  }
+
+  /** @return the number of segments */
+  int size() {
+    return segments.size();
+  }
+
+  /** @return the segments themselves */
+  SegmentArray getSegments() {
+    return segments;
+  }
+}
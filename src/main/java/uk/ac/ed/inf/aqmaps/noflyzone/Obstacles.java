@@ -1,10 +1,16 @@
 package uk.ac.ed.inf.aqmaps.noflyzone;
 
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.FixedPoint;
 import uk.ac.ed.inf.aqmaps.geometry.Polygon;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /** Holds information about the obstacles or no-fly zones that the drone must avoid. */
 public class Obstacles {
@@ -12,32 +18,206 @@ public class Obstacles {
   public static final Coords TOP_LEFT = new Coords(-3.192473, 55.946233);
   /** A Point representing the southeast corner of the confinement area. */
   public static final Coords BOTTOM_RIGHT = new Coords(-3.184319, 55.942617);
+  /**
+   * The number of columns in the {@link SegmentGrid} over the confinement area. Together with
+   * {@link #GRID_ROWS} this gives roughly square cells of about one drone move across, which
+   * performed best in ObstaclesBenchmark.
+   */
+  private static final int GRID_COLUMNS = 32;
+  /** The number of rows in the {@link SegmentGrid} over the confinement area. */
+  private static final int GRID_ROWS = 14;
+  /**
+   * Above this many obstacle segments a {@link SegmentTree} is used instead of a {@link
+   * SegmentGrid}, since the grid cells fill up with segments. Chosen using ObstaclesBenchmark.
+   */
+  private static final int MAX_GRID_SEGMENTS = 20000;
+  /**
+   * The amount to widen the area searched for segments near a move by, in degrees, so that
+   * rounding in the end of the move can never leave out a segment.
+   */
+  private static final double MOVE_MARGIN = 1e-12;
+  /**
+   * The tolerance for deciding which side of a move the ends of a segment are on, as a fraction of
+   * the square of the move length. See {@link #blockedMoveDirections}.
+   */
+  private static final double SIDE_TOLERANCE = 1e-9;
+  /** The number of directions a drone can move in, which are multiples of 10 degrees */
+  public static final int MOVE_DIRECTIONS = 36;
+  /**
+   * The memory used by the {@link ObstacleRaster} by default, which gives cells about 1e-5 degrees
+   * across, or a thirtieth of a drone move. Chosen using ObstaclesBenchmark.
+   */
+  public static final int DEFAULT_RASTER_BYTES = 1 << 16;
   /**
    * A weighted graph containing all points which form an outline around the polygons as vertices,
    * and edges connecting them if they have line of sight, which have a weight equal to the distance
-   * between them.
+   * between them. It is only built once it is needed, see {@link #getGraph(Executor)}.
    */
-  private final ObstacleGraph graph;
+  private ObstacleGraph graph;
+
+  /** The shared pathfinders, see {@link #getObstaclePathfinder(ShortestPathMethod)} */
+  private final Map<ShortestPathMethod, ObstaclePathfinder> pathfinders =
+      new EnumMap<>(ShortestPathMethod.class);
+
+  /** Whether to use the reduced obstacle graph, see {@link ObstacleGraph#prepareReducedGraph} */
+  private final boolean reduceGraph;
 
   /** A list of the Polygon representations of the obstacles */
   private final List<Polygon> polygons;
 
+  /** Every edge of every polygon */
+  private final ObstacleSegments obstacleSegments;
+
+  /** A spatial index which finds the obstacle segments near a line. */
+  private final SegmentIndex segmentIndex;
+
+  /** An R-tree over the bounding boxes of the polygons, for finding those containing a point. */
+  private final BoxTree polygonTree;
+
+  /** The offsets of the moves used by the last call to {@link #blockedMoveDirections} */
+  private volatile MoveOffsets moveOffsets = new MoveOffsets(0);
+
+  /** The cache of line of sight results, or null if caching is turned off */
+  private final VisibilityCache visibilityCache;
+
+  /** A bitmap of the cells which are free or blocked, or null if it is turned off */
+  private final ObstacleRaster raster;
+
   /**
-   * Constructs Obstacles out of a list of Polygons specifying their locations
+   * Constructs Obstacles out of a list of Polygons specifying their locations, with the full
+   * obstacle graph
    *
    * @param polygons the Polygons which make up the obstacles
    */
   public Obstacles(List<Polygon> polygons) {
+    this(polygons, false);
+  }
+
+  /**
+   * Constructs Obstacles out of a list of Polygons specifying their locations, choosing whether the
+   * obstacle graph is reduced. The reduced graph is smaller and faster to search, and the tests
+   * check that it gives the same shortest paths as the full graph, but the full graph is the
+   * default since it does not rely on the tangent checks.
+   *
+   * @param polygons the Polygons which make up the obstacles
+   * @param reduceGraph true to only keep the convex corners and bitangent edges in the obstacle
+   *     graph, see {@link ObstacleGraph#prepareReducedGraph}
+   */
+  public Obstacles(List<Polygon> polygons, boolean reduceGraph) {
+    this(polygons, reduceGraph, 0);
+  }
+
+  /**
+   * Constructs Obstacles out of a list of Polygons specifying their locations, choosing whether the
+   * obstacle graph is reduced and how many line of sight results to cache. The cache is off by
+   * default, since on the real no-fly zones a lookup in the {@link SegmentGrid} costs about the
+   * same as a lookup in the cache, and most of the lines checked by the drone navigation are new.
+   * Each cached result takes about 56 bytes.
+   *
+   * @param polygons the Polygons which make up the obstacles
+   * @param reduceGraph true to only keep the convex corners and bitangent edges in the obstacle
+   *     graph, see {@link ObstacleGraph#prepareReducedGraph}
+   * @param visibilityCacheCapacity the number of results to keep in the {@link VisibilityCache}, or
+   *     0 to turn the cache off
+   */
+  public Obstacles(List<Polygon> polygons, boolean reduceGraph, int visibilityCacheCapacity) {
+    this(polygons, reduceGraph, visibilityCacheCapacity, DEFAULT_RASTER_BYTES);
+  }
+
+  /**
+   * Constructs Obstacles out of a list of Polygons specifying their locations, choosing whether the
+   * obstacle graph is reduced, how many line of sight results to cache, and how much memory to use
+   * for the raster which speeds up {@link #pointCollides}. The results are the same whatever the
+   * settings.
+   *
+   * @param polygons the Polygons which make up the obstacles
+   * @param reduceGraph true to only keep the convex corners and bitangent edges in the obstacle
+   *     graph, see {@link ObstacleGraph#prepareReducedGraph}
+   * @param visibilityCacheCapacity the number of results to keep in the {@link VisibilityCache}, or
+   *     0 to turn the cache off
+   * @param rasterBytes the maximum number of bytes to use for the {@link ObstacleRaster}, or 0 to
+   *     turn the raster off
+   */
+  public Obstacles(
+      List<Polygon> polygons, boolean reduceGraph, int visibilityCacheCapacity, int rasterBytes) {
+    this(polygons, reduceGraph, visibilityCacheCapacity, rasterBytes, false);
+  }
+
+  /**
+   * Constructs Obstacles out of a list of Polygons specifying their locations, choosing all of the
+   * settings including whether to use fixed point coordinates for the collision checks. In fixed
+   * point mode the segment intersection tests are exact, see {@link FixedPoint}, so lines which
+   * only just touch an obstacle can give different results from the floating point tests.
+   *
+   * @param polygons the Polygons which make up the obstacles
+   * @param reduceGraph true to only keep the convex corners and bitangent edges in the obstacle
+   *     graph, see {@link ObstacleGraph#prepareReducedGraph}
+   * @param visibilityCacheCapacity the number of results to keep in the {@link VisibilityCache}, or
+   *     0 to turn the cache off
+   * @param rasterBytes the maximum number of bytes to use for the {@link ObstacleRaster}, or 0 to
+   *     turn the raster off
+   * @param fixedPoint true to test for collisions with exact fixed point arithmetic
+   */
+  public Obstacles(
+      List<Polygon> polygons,
+      boolean reduceGraph,
+      int visibilityCacheCapacity,
+      int rasterBytes,
+      boolean fixedPoint) {
     this.polygons = polygons;
+    this.reduceGraph = reduceGraph;
+    this.visibilityCache =
+        visibilityCacheCapacity > 0 ? new VisibilityCache(visibilityCacheCapacity) : null;
+
+    obstacleSegments = new ObstacleSegments(polygons, fixedPoint);
+    if (obstacleSegments.size() <= MAX_GRID_SEGMENTS) {
+      segmentIndex =
+          new SegmentGrid(obstacleSegments, TOP_LEFT, BOTTOM_RIGHT, GRID_COLUMNS, GRID_ROWS);
+    } else {
+      segmentIndex = new SegmentTree(obstacleSegments);
+    }
+
+    var minX = new double[polygons.size()];
+    var minY = new double[polygons.size()];
+    var maxX = new double[polygons.size()];
+    var maxY = new double[polygons.size()];
+    for (int i = 0; i < polygons.size(); i++) {
+      var box = polygons.get(i).getBoundingBox();
+      minX[i] = box.getMinX();
+      minY[i] = box.getMinY();
+      maxX[i] = box.getMaxX();
+      maxY[i] = box.getMaxY();
+    }
+    polygonTree = new BoxTree(minX, minY, maxX, maxY);
 
-    var outlinePoints = new ArrayList<Coords>();
+    raster =
+        rasterBytes > 0
+            ? new ObstacleRaster(
+                obstacleSegments, TOP_LEFT, BOTTOM_RIGHT, rasterBytes, this::pointInPolygon)
+            : null;
+  }
+
+  /**
+   * Gets the obstacle graph, building it the first time this is called. Building the graph takes
+   * much longer than the collision indexes, so it is not built if only collision checks are used.
+   *
+   * @param executor the executor to build the graph on
+   * @return the obstacle graph
+   */
+  private synchronized ObstacleGraph getGraph(Executor executor) {
+    if (graph == null && reduceGraph) {
+      graph = ObstacleGraph.prepareReducedGraph(polygons, this, executor);
+    } else if (graph == null) {
+      var outlinePoints = new ArrayList<Coords>();
 
-    // Derive a Polygon from each of the polygons in the mapbox, and get the points, segments and
-    // bounding box from each polygon
-    for (var polygon : polygons) {
-      outlinePoints.addAll(polygon.generateOutlinePoints());
+      // Derive a Polygon from each of the polygons in the mapbox, and get the points, segments and
+      // bounding box from each polygon
+      for (var polygon : polygons) {
+        outlinePoints.addAll(polygon.generateOutlinePoints());
+      }
+      graph = ObstacleGraph.prepareGraph(outlinePoints, this, executor);
     }
-    this.graph = ObstacleGraph.prepareGraph(outlinePoints, this);
+    return graph;
   }
 
   /**
@@ -65,27 +245,224 @@ public class Obstacles {
     if (!isInConfinement(start) || !isInConfinement(end)) {
       return true;
     }
-    return polygons.stream().anyMatch(polygon -> polygon.lineCollision(start, end));
+    // Only check the obstacle segments near the line
+    return segmentIndex.lineCollision(start, end);
+  }
+
+  /**
+   * Determines whether the line segment between the start and end points collides with a obstacle,
+   * using the {@link VisibilityCache} if it is turned on. This gives exactly the same results as
+   * {@link #lineCollision(Coords, Coords)}, it is only meant for the places which check the same
+   * lines repeatedly.
+   *
+   * @param start the coordinates of the start point
+   * @param end the coordinates of the end point
+   * @param site where the check comes from, for the cache statistics
+   * @return true if the segment collides with an obstacle, false otherwise
+   */
+  public boolean lineCollision(Coords start, Coords end, VisibilityCache.CallSite site) {
+    if (!isInConfinement(start) || !isInConfinement(end)) {
+      return true;
+    }
+    if (visibilityCache == null) {
+      return segmentIndex.lineCollision(start, end);
+    }
+    return visibilityCache.lineCollision(start, end, site, segmentIndex);
+  }
+
+  /**
+   * Finds which of the {@value #MOVE_DIRECTIONS} possible moves from a position collide with an
+   * obstacle, all at once. The obstacle segments near the position are gathered once and tested
+   * against each move, which is much faster than calling {@link #lineCollision(Coords, Coords)}
+   * for every direction. The results are exactly the same as that, for the line from the position
+   * to {@link Coords#getPositionAfterMoveDegrees} in each direction.
+   *
+   * @param position the position to move from
+   * @param length the length of a move
+   * @return a mask with bit i set if the move in the direction 10 * i degrees collides
+   */
+  public long blockedMoveDirections(Coords position, double length) {
+    long allDirections = (1L << MOVE_DIRECTIONS) - 1;
+    if (!isInConfinement(position)) {
+      return allDirections;
+    }
+
+    // Any segment which collides with a move is within the length of the move of the position
+    var reach = length + MOVE_MARGIN;
+    var nearSegments = IntStream.builder();
+    segmentIndex.forEachNear(
+        position.x - reach,
+        position.y - reach,
+        position.x + reach,
+        position.y + reach,
+        nearSegments::add);
+    var near = nearSegments.build().toArray();
+
+    var offsets = moveOffsets;
+    if (offsets.length != length) {
+      offsets = new MoveOffsets(length);
+      moveOffsets = offsets;
+    }
+    var ends = new Coords[MOVE_DIRECTIONS];
+    long blocked = 0;
+    for (int i = 0; i < MOVE_DIRECTIONS; i++) {
+      ends[i] = new Coords(position.x + offsets.dx[i], position.y + offsets.dy[i]);
+      if (!isInConfinement(ends[i])) {
+        blocked |= 1L << i;
+      }
+    }
+
+    // A move can only cross a segment if the ends of the segment are not both strictly on the same
+    // side of the line of the move, so only those moves need the exact test. The tolerance is far
+    // larger than the rounding error in the sides, and far smaller than their usual size.
+    var segments = obstacleSegments.getSegments();
+    var tolerance = SIDE_TOLERANCE * length * length;
+    for (var s : near) {
+      var ax = segments.getX1(s) - position.x;
+      var ay = segments.getY1(s) - position.y;
+      var bx = segments.getX2(s) - position.x;
+      var by = segments.getY2(s) - position.y;
+      for (int i = 0; i < MOVE_DIRECTIONS; i++) {
+        if ((blocked & (1L << i)) != 0) {
+          continue;
+        }
+        var sideA = offsets.dx[i] * ay - offsets.dy[i] * ax;
+        var sideB = offsets.dx[i] * by - offsets.dy[i] * bx;
+        if ((sideA > tolerance && sideB > tolerance)
+            || (sideA < -tolerance && sideB < -tolerance)) {
+          continue;
+        }
+        if (obstacleSegments.collides(s, position, ends[i])) {
+          blocked |= 1L << i;
+        }
+      }
+    }
+    return blocked;
+  }
+
+  /** @return the cache of line of sight results, or null if caching is turned off */
+  public VisibilityCache getVisibilityCache() {
+    return visibilityCache;
   }
 
   /**
    * Determine whether the given point is inside an obstacle, or outside the confinement area. This
-   * is currently only used in testing to generate random starting points.
+   * is not needed while planning, which checks lines rather than points, but it is how callers
+   * check that a start position is valid. The tests and benchmarks use it to pick random start and
+   * end points, often millions of times.
+   *
+   * <p>Points outside the confinement area are rejected first. Otherwise, if the raster is turned
+   * on, the point's cell is looked up, and a cell which no obstacle edge passes near is wholly free
+   * or wholly blocked, so only points in boundary cells need the exact {@link #pointInPolygon}
+   * test.
    *
    * @param coords the point
    * @return true if there is a collision, false otherwise
    */
   public boolean pointCollides(Coords coords) {
-    return !isInConfinement(coords) || polygons.stream().anyMatch(p -> p.contains(coords));
+    if (!isInConfinement(coords)) {
+      return true;
+    }
+    // Only points near the edge of an obstacle need the exact test
+    if (raster != null) {
+      var cellClass = raster.classify(coords);
+      if (cellClass != ObstacleRaster.BOUNDARY) {
+        return cellClass == ObstacleRaster.BLOCKED;
+      }
+    }
+    return pointInPolygon(coords);
   }
 
   /**
-   * Gets an ObstaclePathfinder using these Obstacles. The ObstaclePathfinder uses a clone of the
-   * obstacle graph, allowing it to be used concurrently with other ObstaclePathfinder.
+   * The exact test for whether a point is inside one of the polygons.
+   *
+   * @param coords the point
+   * @return true if one of the polygons contains the point, false otherwise
+   */
+  private boolean pointInPolygon(Coords coords) {
+    // Only check the polygons whose bounding boxes contain the point
+    return polygonTree.anyContaining(coords.x, coords.y, i -> polygons.get(i).contains(coords));
+  }
+
+  /** @return every edge of every polygon */
+  ObstacleSegments getObstacleSegments() {
+    return obstacleSegments;
+  }
+
+  /**
+   * Gets an ObstaclePathfinder using these Obstacles. It uses A* search, which PathfinderBenchmark
+   * shows answers queries faster than the all pairs shortest paths for graphs of every size. It
+   * settles only a handful of vertices, so it checks line of sight to the end point from those
+   * alone, whereas the all pairs method checks it from every vertex.
    *
    * @return an ObstaclePathfinder instance with these obstacles
    */
   public ObstaclePathfinder getObstaclePathfinder() {
-    return new ObstaclePathfinder((ObstacleGraph) graph.clone(), this);
+    return getObstaclePathfinder(ShortestPathMethod.A_STAR);
+  }
+
+  /**
+   * Gets the ObstaclePathfinder from {@link #getObstaclePathfinder()}, building the obstacle graph
+   * on the given executor if it has not been built yet.
+   *
+   * @param executor the executor to build the obstacle graph on, which must not be running the
+   *     caller
+   * @return an ObstaclePathfinder instance with these obstacles
+   */
+  public ObstaclePathfinder getObstaclePathfinder(Executor executor) {
+    return getObstaclePathfinder(ShortestPathMethod.A_STAR, executor);
+  }
+
+  /**
+   * Gets an ObstaclePathfinder using these Obstacles and the given method. The same
+   * ObstaclePathfinder is shared by all callers, which is safe since it never modifies the obstacle
+   * graph. It is created the first time it is asked for, which for {@link
+   * ShortestPathMethod#ALL_PAIRS} includes computing all of the shortest paths in parallel. If the
+   * obstacle graph is too large for the all pairs tables, the A* pathfinder is returned instead.
+   *
+   * @param method the way to find the shortest paths
+   * @return an ObstaclePathfinder instance with these obstacles
+   */
+  public ObstaclePathfinder getObstaclePathfinder(ShortestPathMethod method) {
+    return getObstaclePathfinder(method, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Gets the ObstaclePathfinder from {@link #getObstaclePathfinder(ShortestPathMethod)}, doing the
+   * parallel work of creating it on the given executor if it has not been created yet.
+   *
+   * @param method the way to find the shortest paths
+   * @param executor the executor to build the obstacle graph and any all pairs shortest paths on,
+   *     which must not be running the caller
+   * @return an ObstaclePathfinder instance with these obstacles
+   */
+  public synchronized ObstaclePathfinder getObstaclePathfinder(
+      ShortestPathMethod method, Executor executor) {
+    if (method == ShortestPathMethod.ALL_PAIRS
+        && getGraph(executor).vertexSet().size() > AllPairsPaths.MAX_VERTICES) {
+      method = ShortestPathMethod.A_STAR;
+    }
+    return pathfinders.computeIfAbsent(
+        method, m -> new ObstaclePathfinder(getGraph(executor), this, m, executor));
+  }
+
+  /**
+   * The change in coordinates of a move of a given length in each direction. These are calculated
+   * in the same way as {@link Coords#getPositionAfterMoveDegrees}, so adding them to a position
+   * gives exactly the same result, without calculating the sines and cosines every time.
+   */
+  private static class MoveOffsets {
+    private final double length;
+    private final double[] dx = new double[MOVE_DIRECTIONS];
+    private final double[] dy = new double[MOVE_DIRECTIONS];
+
+    private MoveOffsets(double length) {
+      this.length = length;
+      for (int i = 0; i < MOVE_DIRECTIONS; i++) {
+        var radians = Math.toRadians(10 * i);
+        dx[i] = length * Math.cos(radians);
+        dy[i] = length * Math.sin(radians);
+      }
+    }
   }
 }
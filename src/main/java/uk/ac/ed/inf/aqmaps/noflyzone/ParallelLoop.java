@@ -0,0 +1,48 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the iterations of a loop with independent iterations on an Executor, for building the
+ * obstacle graph and the all pairs shortest paths. The flight planner passes in its own workers, so
+ * that this work does not run on the common ForkJoinPool alongside anything else that uses it.
+ */
+final class ParallelLoop {
+  private ParallelLoop() {}
+
+  /**
+   * Runs the action for every index from 0 up to but not including the count, and waits for them
+   * all to finish. Each index is a separate task, so this is meant for iterations which each do a
+   * lot of work. It must not be called from a thread of the executor.
+   *
+   * @param executor the executor to run the iterations on, or null to run them on this thread
+   * @param count the number of iterations
+   * @param action the body of the loop, which is given the index
+   */
+  static void forEachIndex(Executor executor, int count, IntConsumer action) {
+    if (executor == null) {
+      for (int i = 0; i < count; i++) {
+        action.accept(i);
+      }
+      return;
+    }
+    var tasks = new CompletableFuture<?>[count];
+    for (int i = 0; i < count; i++) {
+      var index = i;
+      tasks[i] = CompletableFuture.runAsync(() -> action.accept(index), executor);
+    }
+    try {
+      CompletableFuture.allOf(tasks).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
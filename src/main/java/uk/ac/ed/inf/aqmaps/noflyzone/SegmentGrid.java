@@ -0,0 +1,250 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.Polygon;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A uniform grid over the confinement area which maps each cell to the obstacle segments that may
+ * pass through it. A collision query only walks the cells that the query line passes through, so
+ * it only needs to test the few segments near the line instead of every segment of every polygon.
+ *
+ * <p>Segments are registered in every cell that their bounding box overlaps, expanded by a tiny
+ * margin. This is a superset of the cells they actually cross, so no intersection can be missed,
+ * and the exact intersection test is still the one used by {@link Polygon#lineCollision}. This
+ * means that the results are identical to checking every polygon in turn. The grid works best when
+ * the obstacles are spread fairly evenly and there are not too many of them, see {@link
+ * SegmentTree} for large sets.
+ */
+class SegmentGrid implements SegmentIndex {
+  /**
+   * Segments are registered in cells within this fraction of a cell width of their bounding box,
+   * so that floating point error in the traversal can never skip a cell containing an intersection.
+   */
+  private static final double CELL_MARGIN = 1e-6;
+
+  private final double minX;
+  private final double minY;
+  private final double cellWidth;
+  private final double cellHeight;
+  private final int columns;
+  private final int rows;
+
+  /** The obstacle segments which the grid refers to */
+  private final ObstacleSegments obstacleSegments;
+
+  /**
+   * The segments in each cell, stored contiguously. The segments of cell c are cellSegments[k] for
+   * cellStart[c] <= k < cellStart[c + 1]. This is much more compact than a list per cell.
+   */
+  private final int[] cellStart;
+
+  private final int[] cellSegments;
+
+  /**
+   * Each thread keeps an array with the number of the last query which tested each segment, so
+   * that a segment which lies in several cells on the path is only tested once per query.
+   */
+  private final ThreadLocal<QueryStamps> stamps;
+
+  /**
+   * Constructor
+   *
+   * @param obstacleSegments the obstacle segments
+   * @param topLeft the northwest corner of the area covered by the grid
+   * @param bottomRight the southeast corner of the area covered by the grid
+   * @param columns the number of cells from west to east
+   * @param rows the number of cells from south to north
+   */
+  SegmentGrid(
+      ObstacleSegments obstacleSegments,
+      Coords topLeft,
+      Coords bottomRight,
+      int columns,
+      int rows) {
+    this.minX = topLeft.x;
+    this.minY = bottomRight.y;
+    this.cellWidth = (bottomRight.x - topLeft.x) / columns;
+    this.cellHeight = (topLeft.y - bottomRight.y) / rows;
+    this.columns = columns;
+    this.rows = rows;
+
+    this.obstacleSegments = obstacleSegments;
+    int segmentCount = obstacleSegments.size();
+
+    // Count the segments in each cell first so that the cell arrays can be allocated exactly
+    cellStart = new int[columns * rows + 1];
+    for (int s = 0; s < segmentCount; s++) {
+      forEachCellOfSegment(s, cell -> cellStart[cell + 1]++);
+    }
+    for (int c = 0; c < columns * rows; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+
+    cellSegments = new int[cellStart[columns * rows]];
+    var fill = new int[columns * rows];
+    for (int s = 0; s < segmentCount; s++) {
+      final int segment = s;
+      forEachCellOfSegment(s, cell -> cellSegments[cellStart[cell] + fill[cell]++] = segment);
+    }
+
+    stamps = ThreadLocal.withInitial(() -> new QueryStamps(segmentCount));
+  }
+
+  @Override
+  public boolean lineCollision(Coords start, Coords end) {
+    var queryStamps = stamps.get();
+    int stamp = queryStamps.next();
+
+    int cellX = column(start.x);
+    int cellY = row(start.y);
+    int endCellX = column(end.x);
+    int endCellY = row(end.y);
+
+    // Amanatides-Woo traversal. tMax is the fraction of the line at which it crosses the next cell
+    // boundary in each direction, and tDelta is the fraction of the line that one cell spans.
+    double dx = end.x - start.x;
+    double dy = end.y - start.y;
+    int stepX = Integer.signum(endCellX - cellX);
+    int stepY = Integer.signum(endCellY - cellY);
+    double tDeltaX = stepX == 0 ? Double.POSITIVE_INFINITY : cellWidth / Math.abs(dx);
+    double tDeltaY = stepY == 0 ? Double.POSITIVE_INFINITY : cellHeight / Math.abs(dy);
+    double tMaxX =
+        stepX == 0
+            ? Double.POSITIVE_INFINITY
+            : (minX + (cellX + (stepX > 0 ? 1 : 0)) * cellWidth - start.x) / dx;
+    double tMaxY =
+        stepY == 0
+            ? Double.POSITIVE_INFINITY
+            : (minY + (cellY + (stepY > 0 ? 1 : 0)) * cellHeight - start.y) / dy;
+
+    // A 4-connected walk between the two cells always takes exactly this many steps. Counting them
+    // rather than comparing against the end cell means rounding can never make the walk overshoot.
+    int steps = Math.abs(endCellX - cellX) + Math.abs(endCellY - cellY);
+    while (true) {
+      if (cellCollision(cellY * columns + cellX, start, end, queryStamps, stamp)) {
+        return true;
+      }
+      if (steps-- == 0) {
+        return false;
+      }
+      // Step in whichever direction crosses a boundary first, unless that direction is finished
+      if (cellY == endCellY || (cellX != endCellX && tMaxX < tMaxY)) {
+        cellX += stepX;
+        tMaxX += tDeltaX;
+      } else {
+        cellY += stepY;
+        tMaxY += tDeltaY;
+      }
+    }
+  }
+
+  @Override
+  public void forEachNear(
+      double left, double bottom, double right, double top, IntConsumer consumer) {
+    var queryStamps = stamps.get();
+    int stamp = queryStamps.next();
+    var marks = queryStamps.marks;
+    for (int cellY = row(bottom); cellY <= row(top); cellY++) {
+      for (int cellX = column(left); cellX <= column(right); cellX++) {
+        int cell = cellY * columns + cellX;
+        for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+          int s = cellSegments[k];
+          if (marks[s] != stamp) {
+            marks[s] = stamp;
+            consumer.accept(s);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests the query line against the segments in a cell which have not been tested already.
+   *
+   * @param cell the index of the cell
+   * @param start the start of the query line
+   * @param end the end of the query line
+   * @param queryStamps the stamps of the current thread
+   * @param stamp the number of the current query
+   * @return true if the line collides with a segment in the cell
+   */
+  private boolean cellCollision(
+      int cell, Coords start, Coords end, QueryStamps queryStamps, int stamp) {
+    var marks = queryStamps.marks;
+    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+      int s = cellSegments[k];
+      if (marks[s] == stamp) {
+        continue;
+      }
+      marks[s] = stamp;
+      if (obstacleSegments.collides(s, start, end)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Calls the consumer on every cell that the bounding box of a segment overlaps.
+   *
+   * @param s the index of the segment
+   * @param consumer the consumer which receives each cell index
+   */
+  private void forEachCellOfSegment(int s, IntConsumer consumer) {
+    var marginX = cellWidth * CELL_MARGIN;
+    var marginY = cellHeight * CELL_MARGIN;
+    var segments = obstacleSegments.getSegments();
+    var startX = segments.getX1(s);
+    var startY = segments.getY1(s);
+    var endX = segments.getX2(s);
+    var endY = segments.getY2(s);
+    int left = column(Math.min(startX, endX) - marginX);
+    int right = column(Math.max(startX, endX) + marginX);
+    int bottom = row(Math.min(startY, endY) - marginY);
+    int top = row(Math.max(startY, endY) + marginY);
+    for (int cellY = bottom; cellY <= top; cellY++) {
+      for (int cellX = left; cellX <= right; cellX++) {
+        consumer.accept(cellY * columns + cellX);
+      }
+    }
+  }
+
+  /**
+   * @param x a longitude
+   * @return the column of the cell containing the longitude, clamped to the grid
+   */
+  private int column(double x) {
+    return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - minX) / cellWidth)));
+  }
+
+  /**
+   * @param y a latitude
+   * @return the row of the cell containing the latitude, clamped to the grid
+   */
+  private int row(double y) {
+    return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - minY) / cellHeight)));
+  }
+
+  /** The per-thread state used to avoid testing the same segment twice in one query. */
+  private static class QueryStamps {
+    private final int[] marks;
+    private int query = 0;
+
+    private QueryStamps(int segmentCount) {
+      marks = new int[segmentCount];
+    }
+
+    /** @return a number which has not been used by an earlier query on this thread */
+    private int next() {
+      if (++query == 0) {
+        // After wrapping around, old marks could match again, so clear them
+        Arrays.fill(marks, 0);
+        query = 1;
+      }
+      return query;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A spatial index over the {@link ObstacleSegments} which finds the segments near a line without
+ * testing all of them.
+ */
+interface SegmentIndex {
+  /**
+   * Determines whether the line segment between the start and end points collides with an obstacle
+   * segment. Both points must be inside the confinement area.
+   *
+   * @param start the coordinates of the start point
+   * @param end the coordinates of the end point
+   * @return true if the segment collides with an obstacle, false otherwise
+   */
+  boolean lineCollision(Coords start, Coords end);
+
+  /**
+   * Calls the consumer once for each obstacle segment whose bounding box may overlap a rectangle.
+   * Segments which do not overlap it may also be included.
+   *
+   * @param left the minimum x coordinate of the rectangle
+   * @param bottom the minimum y coordinate of the rectangle
+   * @param right the maximum x coordinate of the rectangle
+   * @param top the maximum y coordinate of the rectangle
+   * @param consumer the consumer which receives the index of each segment
+   */
+  void forEachNear(double left, double bottom, double right, double top, IntConsumer consumer);
+}
@@ -0,0 +1,54 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.function.IntConsumer;
+
+/**
+ * An R-tree over the bounding boxes of the obstacle segments, see {@link BoxTree}. Unlike {@link
+ * SegmentGrid}, the tree adapts to wherever the obstacles are, so its queries stay fast for large
+ * sets of no-fly zones.
+ */
+class SegmentTree implements SegmentIndex {
+  private final ObstacleSegments obstacleSegments;
+  private final BoxTree tree;
+
+  /** @param obstacleSegments the obstacle segments */
+  SegmentTree(ObstacleSegments obstacleSegments) {
+    this.obstacleSegments = obstacleSegments;
+
+    var segments = obstacleSegments.getSegments();
+    int n = segments.size();
+    var minX = new double[n];
+    var minY = new double[n];
+    var maxX = new double[n];
+    var maxY = new double[n];
+    for (int s = 0; s < n; s++) {
+      minX[s] = Math.min(segments.getX1(s), segments.getX2(s));
+      minY[s] = Math.min(segments.getY1(s), segments.getY2(s));
+      maxX[s] = Math.max(segments.getX1(s), segments.getX2(s));
+      maxY[s] = Math.max(segments.getY1(s), segments.getY2(s));
+    }
+    tree = new BoxTree(minX, minY, maxX, maxY);
+  }
+
+  @Override
+  public boolean lineCollision(Coords start, Coords end) {
+    return tree.anyAlongLine(
+        start.x, start.y, end.x, end.y, s -> obstacleSegments.collides(s, start, end));
+  }
+
+  @Override
+  public void forEachNear(
+      double left, double bottom, double right, double top, IntConsumer consumer) {
+    tree.anyInBox(
+        left,
+        bottom,
+        right,
+        top,
+        s -> {
+          consumer.accept(s);
+          return false;
+        });
+  }
+}
@@ -0,0 +1,20 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+/** The ways in which an {@link ObstaclePathfinder} can find shortest paths around the obstacles. */
+public enum ShortestPathMethod {
+  /** Run Dijkstra's algorithm over the obstacle graph for each query. */
+  DIJKSTRA,
+  /**
+   * Run an A* search over the obstacle graph for each query, guided by the straight line distance
+   * to the end point. This never overestimates the remaining distance, so the paths are as short
+   * as with Dijkstra's algorithm, but far fewer vertices are settled when the end point is close.
+   */
+  A_STAR,
+  /**
+   * Precompute the shortest paths between every pair of obstacle graph vertices, so that each query
+   * only needs to combine the vertices visible from its start and end points. This uses memory
+   * proportional to the square of the number of vertices, so for graphs with more than 2000
+   * vertices {@link Obstacles#getObstaclePathfinder(ShortestPathMethod)} uses A* instead.
+   */
+  ALL_PAIRS
+}
@@ -0,0 +1,134 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the results of {@link Obstacles#lineCollision}. During one flight planning run
+ * the same lines are checked many times, for example the line of sight from each sensor to every
+ * outline vertex is checked once for every other sensor.
+ *
+ * <p>The cache is direct mapped: each line hashes to a single slot, and a new result simply
+ * replaces whatever was in its slot. The key is the exact bits of the four coordinates, since even
+ * a tiny difference in an endpoint can change whether a line touches an obstacle. The slots hold
+ * immutable entries in an AtomicReferenceArray, so any number of threads can use the cache at once
+ * without locking.
+ */
+public class VisibilityCache {
+  /** The places which check line of sight, so the hits and misses can be counted separately. */
+  public enum CallSite {
+    /** {@code FlightPlanner.cutCorner}, checking the lines through the new targets */
+    CORNER_CUTTING,
+    /** {@code WaypointNavigation}, checking the moves and the line of sight to the next waypoint */
+    NAVIGATION,
+    /** {@link ObstaclePathfinder}, checking the direct line between the start and end points */
+    DIRECT_PATH,
+    /** {@link ObstaclePathfinder}, checking the line of sight to each vertex of the graph */
+    OUTLINE_VERTEX
+  }
+
+  private final AtomicReferenceArray<Entry> entries;
+  /** One less than the number of slots, which is a power of 2 */
+  private final int mask;
+
+  private final LongAdder[] hits = new LongAdder[CallSite.values().length];
+  private final LongAdder[] misses = new LongAdder[CallSite.values().length];
+
+  /**
+   * @param capacity the maximum number of results to hold. It is rounded up to a power of 2.
+   */
+  VisibilityCache(int capacity) {
+    int slots = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    entries = new AtomicReferenceArray<>(slots);
+    mask = slots - 1;
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new LongAdder();
+      misses[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Looks up whether a line collides, computing and storing the result if it is not cached.
+   *
+   * @param start the start of the line
+   * @param end the end of the line
+   * @param site where the check comes from, for the hit and miss counts
+   * @param collision the index to check the obstacle segments with on a miss
+   * @return true if the line collides with an obstacle, false otherwise
+   */
+  boolean lineCollision(Coords start, Coords end, CallSite site, SegmentIndex collision) {
+    var x1 = Double.doubleToLongBits(start.x);
+    var y1 = Double.doubleToLongBits(start.y);
+    var x2 = Double.doubleToLongBits(end.x);
+    var y2 = Double.doubleToLongBits(end.y);
+    int slot = hash(x1, y1, x2, y2) & mask;
+
+    var entry = entries.get(slot);
+    if (entry != null && entry.matches(x1, y1, x2, y2)) {
+      hits[site.ordinal()].increment();
+      return entry.collides;
+    }
+    misses[site.ordinal()].increment();
+    var collides = collision.lineCollision(start, end);
+    entries.set(slot, new Entry(x1, y1, x2, y2, collides));
+    return collides;
+  }
+
+  /**
+   * @param site a call site
+   * @return the number of times a check from the call site found its result in the cache
+   */
+  public long getHits(CallSite site) {
+    return hits[site.ordinal()].sum();
+  }
+
+  /**
+   * @param site a call site
+   * @return the number of times a check from the call site had to compute its result
+   */
+  public long getMisses(CallSite site) {
+    return misses[site.ordinal()].sum();
+  }
+
+  /** @return the maximum number of results the cache can hold */
+  public int getCapacity() {
+    return entries.length();
+  }
+
+  /** Mixes the bits of the coordinates into a hash, using the finaliser from MurmurHash3. */
+  private static int hash(long x1, long y1, long x2, long y2) {
+    var h = x1;
+    h = h * 31 + y1;
+    h = h * 31 + x2;
+    h = h * 31 + y2;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /** The exact coordinates of a line and whether it collides with an obstacle. */
+  private static class Entry {
+    private final long x1;
+    private final long y1;
+    private final long x2;
+    private final long y2;
+    private final boolean collides;
+
+    private Entry(long x1, long y1, long x2, long y2, boolean collides) {
+      this.x1 = x1;
+      this.y1 = y1;
+      this.x2 = x2;
+      this.y2 = y2;
+      this.collides = collides;
+    }
+
+    private boolean matches(long x1, long y1, long x2, long y2) {
+      return this.x1 == x1 && this.y1 == y1 && this.x2 == x2 && this.y2 == y2;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package uk.ac.ed.inf.aqmaps.noflyzone;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibilityCache.CallSite;
+
+/**
+ * The set of obstacle graph vertices which a fixed point has line of sight to. Checking line of
+ * sight to the vertices is most of the work of a shortest path query, so points which are the start
+ * or end of many queries, such as the sensors, can get one of these from {@link
+ * ObstaclePathfinder#getVisibleVertices} and pass it to each query, and each vertex is only checked
+ * once.
+ *
+ * <p>Each vertex is only checked the first time a query asks about it, since most queries between
+ * sensors have a direct path and never look at the graph, and an A* search only asks about the
+ * few vertices it settles. The result is stored in one byte per vertex. Threads which ask about a
+ * vertex at the same time may each check it, but they store the same result, and writing a byte
+ * does not affect its neighbours, so any number of threads can share one instance.
+ */
+public final class VisibleVertices {
+  private static final byte UNKNOWN = 0;
+  private static final byte VISIBLE = 1;
+  private static final byte BLOCKED = 2;
+
+  /** The graph the states refer to, since the indexes mean nothing in any other graph */
+  private final CompactGraph graph;
+
+  private final Obstacles obstacles;
+  private final Coords point;
+
+  /** Whether each vertex is visible, blocked, or has not been checked yet */
+  private final byte[] states;
+
+  /**
+   * Package private since only ObstaclePathfinder knows the indexes of the vertices.
+   *
+   * @param graph the graph the vertices belong to
+   * @param obstacles the obstacles which block line of sight
+   * @param point the point to look from
+   */
+  VisibleVertices(CompactGraph graph, Obstacles obstacles, Coords point) {
+    this.graph = graph;
+    this.obstacles = obstacles;
+    this.point = point;
+    this.states = new byte[graph.size()];
+  }
+
+  /**
+   * @param v the index of a vertex
+   * @return true if the vertex is visible, false otherwise
+   */
+  boolean contains(int v) {
+    var state = states[v];
+    if (state == UNKNOWN) {
+      var blocked = obstacles.lineCollision(point, graph.getVertex(v), CallSite.OUTLINE_VERTEX);
+      state = blocked ? BLOCKED : VISIBLE;
+      states[v] = state;
+    }
+    return state == VISIBLE;
+  }
+
+  /**
+   * @param graph a graph
+   * @return true if these are vertices of the given graph, false otherwise
+   */
+  boolean belongsTo(CompactGraph graph) {
+    return this.graph == graph;
+  }
+
+  /** @return the number of visible vertices, which checks every vertex not yet checked */
+  public int size() {
+    int size = 0;
+    for (int v = 0; v < states.length; v++) {
+      if (contains(v)) {
+        size++;
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,77 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.FixedPoint;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedPointTest {
+
+  @Test
+  public void conversionIsExactInConfinementArea() {
+    var random = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      var point = ObstaclesBenchmark.randomPoint(random);
+      assertEquals(point.x, FixedPoint.toDegrees(FixedPoint.fromDegrees(point.x)), 0);
+      assertEquals(point.y, FixedPoint.toDegrees(FixedPoint.fromDegrees(point.y)), 0);
+    }
+  }
+
+  @Test
+  public void orientationIsExactForNearlyCollinearPoints() {
+    var random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      var a = ObstaclesBenchmark.randomPoint(random);
+      var b = ObstaclesBenchmark.randomPoint(random);
+      // A point on the line between them, give or take rounding
+      var t = random.nextDouble();
+      var p = new Coords(a.x + t * (b.x - a.x), a.y + t * (b.y - a.y));
+
+      // The exact sign of the cross product. If it is 0 the point lies between the ends of the
+      // segment, so the orientation is 0 either way.
+      var expected =
+          new BigDecimal(p.x)
+              .subtract(new BigDecimal(a.x))
+              .multiply(new BigDecimal(b.y).subtract(new BigDecimal(a.y)))
+              .subtract(
+                  new BigDecimal(p.y)
+                      .subtract(new BigDecimal(a.y))
+                      .multiply(new BigDecimal(b.x).subtract(new BigDecimal(a.x))))
+              .signum();
+      assertEquals(
+          "Point " + p + " and line from " + a + " to " + b,
+          expected,
+          FixedPoint.orientation(
+              FixedPoint.fromDegrees(a.x),
+              FixedPoint.fromDegrees(a.y),
+              FixedPoint.fromDegrees(b.x),
+              FixedPoint.fromDegrees(b.y),
+              FixedPoint.fromDegrees(p.x),
+              FixedPoint.fromDegrees(p.y)));
+    }
+  }
+
+  @Test
+  public void fixedPointCollisionsMatchFloatingPoint() {
+    var polygons =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+    var obstacles = new Obstacles(polygons);
+    var fixedObstacles = new Obstacles(polygons, true, 0, Obstacles.DEFAULT_RASTER_BYTES, true);
+
+    // Random lines almost never just touch a polygon, so the results should agree
+    var lines = ObstaclesBenchmark.randomLines(new Random(2), 20000, Double.POSITIVE_INFINITY);
+    for (var line : lines) {
+      assertEquals(
+          "Line from " + line[0] + " to " + line[1],
+          obstacles.lineCollision(line[0], line[1]),
+          fixedObstacles.lineCollision(line[0], line[1]));
+    }
+  }
+}
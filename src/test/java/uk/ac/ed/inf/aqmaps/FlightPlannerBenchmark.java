@@ -0,0 +1,61 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time and memory allocated per call of {@link FlightPlanner#computeFlightLength}.
+ * This is not run as part of the tests, run the main method instead.
+ */
+public class FlightPlannerBenchmark {
+  private static final int TOURS = 200;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    var threadId = Thread.currentThread().getId();
+
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var sensors = new ArrayList<Coords>();
+    input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+
+    // Random tours, which are nothing like each other so the leg cache rarely helps
+    var random = new Random(0);
+    var tours = new ArrayList<List<Coords>>();
+    for (int i = 0; i < TOURS; i++) {
+      var tour = new ArrayList<>(sensors);
+      Collections.shuffle(tour, random);
+      tour.add(tour.get(0));
+      tours.add(tour);
+    }
+
+    double bestNanos = Double.POSITIVE_INFINITY;
+    double bestBytes = Double.POSITIVE_INFINITY;
+    for (int round = 0; round < ROUNDS; round++) {
+      // A new planner each round so that its leg cache starts empty
+      var flightPlanner = new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0);
+      long bytes = threadBean.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (var tour : tours) {
+        flightPlanner.computeFlightLength(tour);
+      }
+      var nanos = System.nanoTime() - start;
+      bytes = threadBean.getThreadAllocatedBytes(threadId) - bytes;
+      bestNanos = Math.min(bestNanos, (double) nanos / TOURS);
+      bestBytes = Math.min(bestBytes, (double) bytes / TOURS);
+    }
+    System.out.printf(
+        "computeFlightLength: %,.0f us and %,.0f KB allocated per call%n",
+        bestNanos / 1e3, bestBytes / 1e3);
+  }
+}
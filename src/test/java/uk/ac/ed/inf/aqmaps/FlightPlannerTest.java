@@ -1,15 +1,26 @@
 package uk.ac.ed.inf.aqmaps;
 
 import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.flightplanning.Deadline;
+import uk.ac.ed.inf.aqmaps.flightplanning.EnhancedTwoOptTSP;
 import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.flightplanning.LinKernighanTSP;
+import uk.ac.ed.inf.aqmaps.flightplanning.PlanningExecutor;
+import uk.ac.ed.inf.aqmaps.flightplanning.SensorGraph;
+import uk.ac.ed.inf.aqmaps.flightplanning.SimulatedAnnealingTSP;
+import uk.ac.ed.inf.aqmaps.flightplanning.TourMethod;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
 import uk.ac.ed.inf.aqmaps.io.ServerInputController;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
 
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -70,6 +81,139 @@ public class FlightPlannerTest {
     System.out.println("Runs completed: " + flightPlans.size());
   }
 
+  @Test
+  public void tourVisitsEverySensorOnce() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var flightPlanner = new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0);
+    for (int seed = 0; seed < 3; seed++) {
+      var twoOpt = new EnhancedTwoOptTSP(1, seed, PRESCRIBED_START, flightPlanner);
+      assertTourVisitsEverySensorOnce(input, twoOpt::getTour);
+    }
+  }
+
+  @Test
+  public void linKernighanTourVisitsEverySensorOnce() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var flightPlanner =
+        new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0, TourMethod.LIN_KERNIGHAN);
+    for (int seed = 0; seed < 3; seed++) {
+      var linKernighan = new LinKernighanTSP(seed, PRESCRIBED_START, flightPlanner);
+      assertTourVisitsEverySensorOnce(input, linKernighan::getTour);
+    }
+  }
+
+  @Test
+  public void simulatedAnnealingTourVisitsEverySensorOnce() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var flightPlanner =
+        new FlightPlanner(
+            obstacles, input.getSensorW3Ws(), 0, 0.1, TourMethod.SIMULATED_ANNEALING);
+    for (int seed = 0; seed < 3; seed++) {
+      var annealing =
+          new SimulatedAnnealingTSP(seed, PRESCRIBED_START, flightPlanner, Deadline.after(0.1));
+      assertTourVisitsEverySensorOnce(input, annealing::getTour);
+    }
+  }
+
+  @Test
+  public void everyAnnealingChainGivesAPlan() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    try (var executor = new PlanningExecutor(4)) {
+      for (var timeLimit : new double[] {0.05, 0.3}) {
+        var flightPlanner =
+            new FlightPlanner(
+                obstacles,
+                input.getSensorW3Ws(),
+                0,
+                timeLimit,
+                TourMethod.SIMULATED_ANNEALING,
+                executor);
+        flightPlanner.createBestFlightPlan(PRESCRIBED_START);
+        assertEquals(4, flightPlanner.getLastIterationCount());
+      }
+    }
+  }
+
+  @Test
+  public void timeLimitIsKept() {
+    // Only a loose bound on the 99th percentile, since the timing depends on the machine. See
+    // TimeLimitOverrunBenchmark for how far past the time limit planning really runs.
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var timeLimit = 0.05;
+    var runs = 100;
+    var out = System.out;
+    for (var method : TourMethod.values()) {
+      var overruns = new double[runs];
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      try {
+        // The first run is not counted, since it is slower while the JIT compiler warms up
+        for (int i = -1; i < runs; i++) {
+          var flightPlanner =
+              new FlightPlanner(obstacles, input.getSensorW3Ws(), i * 100, timeLimit, method);
+          var startTime = System.nanoTime();
+          var flightPlan = flightPlanner.createBestFlightPlan(PRESCRIBED_START);
+          assertFalse(flightPlan.isEmpty());
+          if (i >= 0) {
+            overruns[i] = (System.nanoTime() - startTime) / 1e6 - timeLimit * 1000;
+          }
+        }
+      } finally {
+        System.setOut(out);
+      }
+      Arrays.sort(overruns);
+      var p99 = TimeLimitOverrunBenchmark.percentile(overruns, 0.99);
+      assertTrue(
+          method + " should stop soon after the time limit, p99 overrun was " + p99 + " ms",
+          p99 < 250);
+    }
+  }
+
+  @Test
+  public void smallLegCacheGivesTheSamePlan() {
+    // Legs are only evicted from the cache to save memory, so the plan should not change
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var executor = PlanningExecutor.getDefault();
+    var defaultPlanner =
+        new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0, TourMethod.TWO_OPT, executor);
+    var smallPlanner =
+        new FlightPlanner(
+            obstacles, input.getSensorW3Ws(), 0, 0, TourMethod.TWO_OPT, executor, 1024);
+    var expected = defaultPlanner.createBestFlightPlan(PRESCRIBED_START);
+    var actual = smallPlanner.createBestFlightPlan(PRESCRIBED_START);
+
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getDirection(), actual.get(i).getDirection());
+    }
+    var cache = smallPlanner.getLegCache();
+    assertEquals(1024, cache.getCapacity());
+    assertEquals(1024, cache.getSize());
+    assertTrue(cache.getEvictions() > 0);
+    assertTrue(cache.getHits() > 0);
+    assertEquals(
+        defaultPlanner.getLegCache().getHits() + defaultPlanner.getLegCache().getMisses(),
+        cache.getHits() + cache.getMisses());
+  }
+
+  private void assertTourVisitsEverySensorOnce(
+      ServerInputController input, Function<SensorGraph, List<Coords>> getTour) {
+    var sensors = new ArrayList<Coords>();
+    input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+    var sensorGraph = SensorGraph.createWithStartLocation(PRESCRIBED_START, sensors, obstacles);
+
+    var tour = getTour.apply(sensorGraph);
+    assertEquals(sensors.size() + 2, tour.size());
+    assertEquals(PRESCRIBED_START, tour.get(0));
+    assertEquals(PRESCRIBED_START, tour.get(tour.size() - 1));
+    assertEquals(new HashSet<>(sensors), new HashSet<>(tour.subList(1, tour.size() - 1)));
+  }
+
   private List<List<Move>> getFlightPlans() {
     // For each of the dates, get the flight plans for a number of starting locations
     return getSpecifiedDates(DAYS_TO_TEST).stream()
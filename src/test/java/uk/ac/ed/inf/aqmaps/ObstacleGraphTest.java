@@ -0,0 +1,46 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.Polygon;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.ObstacleGraph;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObstacleGraphTest {
+
+  @Test
+  public void parallelMatchesSequentialOnNoFlyZones() {
+    var noFlyZones =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+    assertSameEdgesInParallel(noFlyZones);
+  }
+
+  @Test
+  public void parallelMatchesSequentialOnManyPolygons() {
+    assertSameEdgesInParallel(ObstaclesBenchmark.randomPolygons(new Random(0), 200));
+  }
+
+  private void assertSameEdgesInParallel(List<Polygon> polygons) {
+    var obstacles = new Obstacles(polygons);
+    var outlinePoints = new ArrayList<Coords>();
+    polygons.forEach(polygon -> outlinePoints.addAll(polygon.generateOutlinePoints()));
+
+    var sequential = ObstacleGraph.prepareGraph(outlinePoints, obstacles, null);
+    var parallel = ObstacleGraph.prepareGraph(outlinePoints, obstacles, ForkJoinPool.commonPool());
+    assertEquals(sequential.edgeSet().size(), parallel.edgeSet().size());
+    for (var edge : sequential.edgeSet()) {
+      assertTrue(
+          parallel.containsEdge(sequential.getEdgeSource(edge), sequential.getEdgeTarget(edge)));
+    }
+  }
+}
@@ -1,14 +1,26 @@
 package uk.ac.ed.inf.aqmaps;
 
+import org.junit.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.Polygon;
 import uk.ac.ed.inf.aqmaps.io.ServerInputController;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+import uk.ac.ed.inf.aqmaps.noflyzone.ShortestPathMethod;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibleVertices;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ObstaclePathfinderTest {
   private static Stream<Arguments> provideArguments() {
@@ -35,4 +47,173 @@ public class ObstaclePathfinderTest {
         obstacles.getObstaclePathfinder().getShortestPathLength(path.start, path.end),
         0.0000000001);
   }
+
+  @Test
+  public void reducedGraphGivesSameLengthsOnNoFlyZones() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    assertReducedGraphGivesSameLengths(input.getNoFlyZones());
+  }
+
+  @Test
+  public void reducedGraphGivesSameLengthsOnManyPolygons() {
+    for (int seed = 0; seed < 8; seed++) {
+      assertReducedGraphGivesSameLengths(
+          ObstaclesBenchmark.randomSeparatePolygons(new Random(seed), 50));
+    }
+    for (int seed = 0; seed < 2; seed++) {
+      assertReducedGraphGivesSameLengths(
+          ObstaclesBenchmark.randomSeparatePolygons(new Random(seed), 200));
+    }
+  }
+
+  @Test
+  public void reducedGraphGivesSameLengthsWhenSidesCross() {
+    for (int seed = 0; seed < 8; seed++) {
+      assertReducedGraphGivesSameLengths(ObstaclesBenchmark.randomPolygons(new Random(seed), 50));
+    }
+  }
+
+  @Test
+  public void sharedPathfinderGivesSameLengthsInParallel() {
+    var obstacles = new Obstacles(ObstaclesBenchmark.randomPolygons(new Random(0), 50));
+    var lines = ObstaclesBenchmark.randomLines(new Random(1), 2000, Double.POSITIVE_INFINITY);
+    var pathfinder = obstacles.getObstaclePathfinder();
+    var sequential =
+        Arrays.stream(lines)
+            .mapToDouble(line -> pathfinder.getShortestPathLength(line[0], line[1]))
+            .toArray();
+    var parallel =
+        Arrays.stream(lines)
+            .parallel()
+            .mapToDouble(
+                line -> obstacles.getObstaclePathfinder().getShortestPathLength(line[0], line[1]))
+            .toArray();
+    assertArrayEquals(sequential, parallel, 0);
+  }
+
+  @Test
+  public void allPairsMatchesDijkstra() {
+    var obstacles = new Obstacles(ObstaclesBenchmark.randomPolygons(new Random(0), 50));
+    var dijkstra = obstacles.getObstaclePathfinder(ShortestPathMethod.DIJKSTRA);
+    var allPairs = obstacles.getObstaclePathfinder(ShortestPathMethod.ALL_PAIRS);
+
+    var random = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      var start = ObstaclesBenchmark.randomPoint(random);
+      var end = ObstaclesBenchmark.randomPoint(random);
+      if (obstacles.pointCollides(start) || obstacles.pointCollides(end)) {
+        continue;
+      }
+      var length = dijkstra.getShortestPathLength(start, end);
+      assertEquals(length, allPairs.getShortestPathLength(start, end), 1e-12);
+
+      // The path must avoid the obstacles and have the same length
+      var path = allPairs.getPathBetweenPoints(start, end);
+      double pathLength = 0;
+      for (int j = 1; j < path.size(); j++) {
+        assertFalse(obstacles.lineCollision(path.get(j - 1), path.get(j)));
+        pathLength += path.get(j - 1).distance(path.get(j));
+      }
+      assertEquals(length, pathLength, 1e-12);
+    }
+  }
+
+  @Test
+  public void aStarMatchesDijkstra() {
+    var obstacles = new Obstacles(ObstaclesBenchmark.randomPolygons(new Random(2), 50));
+    var dijkstra = obstacles.getObstaclePathfinder(ShortestPathMethod.DIJKSTRA);
+    var aStar = obstacles.getObstaclePathfinder(ShortestPathMethod.A_STAR);
+
+    var random = new Random(3);
+    long dijkstraSettled = 0;
+    long aStarSettled = 0;
+    for (int i = 0; i < 1000; i++) {
+      var start = ObstaclesBenchmark.randomPoint(random);
+      var end = ObstaclesBenchmark.randomPoint(random);
+      if (obstacles.pointCollides(start)
+          || obstacles.pointCollides(end)
+          || !obstacles.lineCollision(start, end)) {
+        continue;
+      }
+      var length = dijkstra.getShortestPathLength(start, end);
+      dijkstraSettled += dijkstra.getLastSettledCount();
+      assertEquals(length, aStar.getShortestPathLength(start, end), 1e-12);
+      aStarSettled += aStar.getLastSettledCount();
+
+      // The path must avoid the obstacles and have the same length
+      var path = aStar.getPathBetweenPoints(start, end);
+      double pathLength = 0;
+      for (int j = 1; j < path.size(); j++) {
+        assertFalse(obstacles.lineCollision(path.get(j - 1), path.get(j)));
+        pathLength += path.get(j - 1).distance(path.get(j));
+      }
+      assertEquals(length, pathLength, 1e-12);
+    }
+    // The heuristic should only ever rule vertices out
+    assertTrue(aStarSettled <= dijkstraSettled);
+  }
+
+  @Test
+  public void visibleVerticesGiveSameLengths() {
+    var obstacles = new Obstacles(ObstaclesBenchmark.randomPolygons(new Random(4), 50));
+    var random = new Random(5);
+    var points = new ArrayList<Coords>();
+    while (points.size() < 30) {
+      var point = ObstaclesBenchmark.randomPoint(random);
+      if (!obstacles.pointCollides(point)) {
+        points.add(point);
+      }
+    }
+
+    for (var method : ShortestPathMethod.values()) {
+      var pathfinder = obstacles.getObstaclePathfinder(method);
+      var visible = new ArrayList<VisibleVertices>();
+      points.forEach(point -> visible.add(pathfinder.getVisibleVertices(point)));
+      for (int i = 0; i < points.size(); i++) {
+        for (int j = 0; j < points.size(); j++) {
+          var start = points.get(i);
+          var end = points.get(j);
+          assertEquals(
+              pathfinder.getShortestPathLength(start, end),
+              pathfinder.getShortestPathLength(start, end, visible.get(i), visible.get(j)),
+              0);
+          assertEquals(
+              pathfinder.getPathBetweenPoints(start, end),
+              pathfinder.getPathBetweenPoints(start, end, visible.get(i), null));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void visibleVerticesFromAnotherPathfinderAreRejected() {
+    var obstacles = new Obstacles(ObstaclesBenchmark.randomPolygons(new Random(6), 10));
+    var point = ObstaclesBenchmark.randomPoint(new Random(7));
+    var visible =
+        obstacles.getObstaclePathfinder(ShortestPathMethod.DIJKSTRA).getVisibleVertices(point);
+    obstacles
+        .getObstaclePathfinder(ShortestPathMethod.A_STAR)
+        .getShortestPathLength(point, point, visible, null);
+  }
+
+  private void assertReducedGraphGivesSameLengths(List<Polygon> polygons) {
+    var full = new Obstacles(polygons, false).getObstaclePathfinder();
+    var reducedObstacles = new Obstacles(polygons, true);
+    var reduced = reducedObstacles.getObstaclePathfinder();
+
+    var random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      var start = ObstaclesBenchmark.randomPoint(random);
+      var end = ObstaclesBenchmark.randomPoint(random);
+      if (reducedObstacles.pointCollides(start) || reducedObstacles.pointCollides(end)) {
+        continue;
+      }
+      assertEquals(
+          "Path from " + start + " to " + end,
+          full.getShortestPathLength(start, end),
+          reduced.getShortestPathLength(start, end),
+          1e-12);
+    }
+  }
 }
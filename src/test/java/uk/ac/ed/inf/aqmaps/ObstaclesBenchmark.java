@@ -0,0 +1,240 @@
+package uk.ac.ed.inf.aqmaps;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+import uk.ac.ed.inf.aqmaps.flightplanning.WaypointNavigation;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.Polygon;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the throughput of the obstacle collision checks. This is not run as part of the tests,
+ * run the main method instead.
+ */
+public class ObstaclesBenchmark {
+  private static final int QUERIES = 200000;
+  private static final int SCALING_QUERIES = 20000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    var polygons =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+    var obstacles = new Obstacles(polygons);
+
+    // Drone moves are by far the most common query, but the graph and corner cutting use long lines
+    var moves = randomLines(new Random(0), QUERIES, WaypointNavigation.MOVE_LENGTH);
+    var lines = randomLines(new Random(1), QUERIES, Double.POSITIVE_INFINITY);
+
+    System.out.println("Queries per second on the real no-fly zones:");
+    benchmarkLineCollision("moves, linear scan", moves, (a, b) -> linearScan(polygons, a, b));
+    benchmarkLineCollision("moves, Obstacles", moves, obstacles::lineCollision);
+    benchmarkLineCollision("long lines, linear scan", lines, (a, b) -> linearScan(polygons, a, b));
+    benchmarkLineCollision("long lines, Obstacles", lines, obstacles::lineCollision);
+    var fixedObstacles = new Obstacles(polygons, true, 0, Obstacles.DEFAULT_RASTER_BYTES, true);
+    benchmarkLineCollision("moves, fixed point", moves, fixedObstacles::lineCollision);
+    benchmarkLineCollision("long lines, fixed point", lines, fixedObstacles::lineCollision);
+    benchmarkPointCollision("points", polygons, randomLines(new Random(2), QUERIES, 0));
+
+    // Navigation tries the moves in every direction from a position until one works
+    var positions = randomLines(new Random(3), QUERIES / 10, 0);
+    benchmarkLineCollision(
+        "move fans, lineCollision",
+        positions,
+        (a, b) -> {
+          for (int direction = 0; direction < 360; direction += 10) {
+            var end = a.getPositionAfterMoveDegrees(direction, WaypointNavigation.MOVE_LENGTH);
+            if (obstacles.lineCollision(a, end)) {
+              return true;
+            }
+          }
+          return false;
+        });
+    benchmarkLineCollision(
+        "move fans, blocked mask",
+        positions,
+        (a, b) -> obstacles.blockedMoveDirections(a, WaypointNavigation.MOVE_LENGTH) != 0);
+
+    // Synthetic sets of small polygons covering the same fraction of the confinement area
+    for (int count : new int[] {10, 100, 1000, 10000}) {
+      var random = new Random(count);
+      var syntheticPolygons = randomPolygons(random, count);
+      var syntheticObstacles = new Obstacles(syntheticPolygons);
+      var points = randomLines(random, SCALING_QUERIES, 0);
+      moves = randomLines(random, SCALING_QUERIES, WaypointNavigation.MOVE_LENGTH);
+      lines = randomLines(random, SCALING_QUERIES / 10, Double.POSITIVE_INFINITY);
+
+      System.out.printf("Queries per second with %d synthetic polygons:%n", count);
+      benchmarkLineCollision(
+          "moves, linear scan", moves, (a, b) -> linearScan(syntheticPolygons, a, b));
+      benchmarkLineCollision("moves, Obstacles", moves, syntheticObstacles::lineCollision);
+      benchmarkLineCollision(
+          "long lines, linear scan", lines, (a, b) -> linearScan(syntheticPolygons, a, b));
+      benchmarkLineCollision("long lines, Obstacles", lines, syntheticObstacles::lineCollision);
+      benchmarkPointCollision("points", syntheticPolygons, points);
+    }
+  }
+
+  /**
+   * Compares the point collision check of a linear scan with Obstacles, with rasters of different
+   * sizes.
+   */
+  private static void benchmarkPointCollision(
+      String name, List<Polygon> polygons, Coords[][] points) {
+    benchmarkLineCollision(
+        name + ", linear scan",
+        points,
+        (a, b) -> !isInConfinement(a) || polygons.stream().anyMatch(p -> p.contains(a)));
+    for (int rasterBytes : new int[] {0, 1 << 12, Obstacles.DEFAULT_RASTER_BYTES, 1 << 20}) {
+      var obstacles = new Obstacles(polygons, true, 0, rasterBytes);
+      benchmarkLineCollision(
+          String.format("%s, %d KiB raster", name, rasterBytes >> 10),
+          points,
+          (a, b) -> obstacles.pointCollides(a));
+    }
+  }
+
+  /**
+   * Generates random star shaped polygons in the confinement area. Their size shrinks as the count
+   * grows so that they cover about the same fraction of the area.
+   *
+   * @param random the random number generator
+   * @param count the number of polygons
+   * @return the polygons
+   */
+  static List<Polygon> randomPolygons(Random random, int count) {
+    var radius = polygonRadius(count);
+    var polygons = new ArrayList<Polygon>();
+    for (int i = 0; i < count; i++) {
+      polygons.add(randomPolygon(random, radius));
+    }
+    return polygons;
+  }
+
+  /**
+   * Generates random star shaped polygons as in {@link #randomPolygons}, but leaves out any which
+   * are not simple or whose sides cross those of an earlier polygon, so that the obstacle graph can
+   * be reduced.
+   *
+   * @param random the random number generator
+   * @param count the number of polygons
+   * @return the polygons
+   */
+  static List<Polygon> randomSeparatePolygons(Random random, int count) {
+    var radius = polygonRadius(count);
+    var polygons = new ArrayList<Polygon>();
+    while (polygons.size() < count) {
+      var polygon = randomPolygon(random, radius);
+      if (polygon.isSimple() && polygons.stream().noneMatch(other -> sidesCross(polygon, other))) {
+        polygons.add(polygon);
+      }
+    }
+    return polygons;
+  }
+
+  private static double polygonRadius(int count) {
+    var area =
+        (Obstacles.BOTTOM_RIGHT.x - Obstacles.TOP_LEFT.x)
+            * (Obstacles.TOP_LEFT.y - Obstacles.BOTTOM_RIGHT.y);
+    return 0.3 * Math.sqrt(area / count);
+  }
+
+  private static Polygon randomPolygon(Random random, double radius) {
+    var centre = randomPoint(random);
+    var angles = random.doubles(4 + random.nextInt(5), 0, 2 * Math.PI).sorted().toArray();
+    var points = new ArrayList<Point>();
+    for (var angle : angles) {
+      var vertex =
+          centre.getPositionAfterMoveRadians(angle, radius * (0.5 + 0.5 * random.nextDouble()));
+      points.add(Point.fromLngLat(vertex.x, vertex.y));
+    }
+    points.add(points.get(0));
+    return Polygon.buildFromFeature(
+        Feature.fromGeometry(com.mapbox.geojson.Polygon.fromLngLats(List.of(points))));
+  }
+
+  private static boolean sidesCross(Polygon first, Polygon second) {
+    var points = first.getPoints();
+    for (int i = 0; i < points.size(); i++) {
+      if (second.lineCollision(points.get(i), points.get((i + 1) % points.size()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The original collision check, which tests every polygon in turn. */
+  static boolean linearScan(List<Polygon> polygons, Coords start, Coords end) {
+    return !isInConfinement(start)
+        || !isInConfinement(end)
+        || polygons.stream().anyMatch(polygon -> polygon.lineCollision(start, end));
+  }
+
+  private static boolean isInConfinement(Coords point) {
+    return Obstacles.TOP_LEFT.x < point.x
+        && point.x < Obstacles.BOTTOM_RIGHT.x
+        && Obstacles.BOTTOM_RIGHT.y < point.y
+        && point.y < Obstacles.TOP_LEFT.y;
+  }
+
+  /**
+   * Generates random lines inside the confinement area.
+   *
+   * @param random the random number generator
+   * @param count the number of lines
+   * @param length the length of the lines, or infinity for lines between two random points. A
+   *     length of 0 gives single points.
+   * @return an array of start and end points
+   */
+  static Coords[][] randomLines(Random random, int count, double length) {
+    var lines = new Coords[count][];
+    for (int i = 0; i < count; i++) {
+      var start = randomPoint(random);
+      var end =
+          Double.isInfinite(length)
+              ? randomPoint(random)
+              : start.getPositionAfterMoveDegrees(random.nextInt(36) * 10, length);
+      lines[i] = new Coords[] {start, end};
+    }
+    return lines;
+  }
+
+  /**
+   * @param random the random number generator
+   * @return a random point in the confinement area
+   */
+  static Coords randomPoint(Random random) {
+    double lng =
+        Obstacles.TOP_LEFT.x
+            + (Obstacles.BOTTOM_RIGHT.x - Obstacles.TOP_LEFT.x) * random.nextDouble();
+    double lat =
+        Obstacles.BOTTOM_RIGHT.y
+            + (Obstacles.TOP_LEFT.y - Obstacles.BOTTOM_RIGHT.y) * random.nextDouble();
+    return new Coords(lng, lat);
+  }
+
+  private static void benchmarkLineCollision(String name, Coords[][] lines, LineQuery query) {
+    double best = 0;
+    int collisions = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      collisions = 0;
+      long start = System.nanoTime();
+      for (var line : lines) {
+        if (query.lineCollision(line[0], line[1])) {
+          collisions++;
+        }
+      }
+      best = Math.max(best, lines.length / ((System.nanoTime() - start) / 1e9));
+    }
+    System.out.printf("  %-26s %,14.0f queries/s (%d collisions)%n", name, best, collisions);
+  }
+
+  private interface LineQuery {
+    boolean lineCollision(Coords start, Coords end);
+  }
+}
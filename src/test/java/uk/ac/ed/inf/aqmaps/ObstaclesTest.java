@@ -4,11 +4,16 @@ import org.junit.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import uk.ac.ed.inf.aqmaps.flightplanning.WaypointNavigation;
 import uk.ac.ed.inf.aqmaps.geometry.Coords;
 import uk.ac.ed.inf.aqmaps.geometry.Polygon;
 import uk.ac.ed.inf.aqmaps.io.ServerInputController;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibilityCache.CallSite;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -63,6 +68,147 @@ public class ObstaclesTest {
     }
   }
 
+  @Test
+  public void lineCollisionMatchesCheckingEveryPolygon() {
+    var noFlyZones =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+
+    // Lines between outline points are the hardest case since they pass within 1e-14 of corners
+    var points = new ArrayList<Coords>();
+    noFlyZones.forEach(polygon -> points.addAll(polygon.generateOutlinePoints()));
+    var random = new Random(0);
+    for (int i = 0; i < 2000; i++) {
+      points.add(ObstaclesBenchmark.randomPoint(random));
+    }
+
+    for (var start : points) {
+      for (int i = 0; i < 50; i++) {
+        var end =
+            random.nextBoolean()
+                ? points.get(random.nextInt(points.size()))
+                : start.getPositionAfterMoveDegrees(random.nextInt(36) * 10, 0.0003);
+        assertEquals(
+            "Line from " + start + " to " + end,
+            checkEveryPolygon(noFlyZones, start, end),
+            obstacles.lineCollision(start, end));
+      }
+    }
+  }
+
+  @Test
+  public void collisionsWithManyPolygonsMatchCheckingEveryPolygon() {
+    // Enough polygons that the obstacles are indexed with an R-tree rather than a grid
+    var random = new Random(0);
+    var polygons = ObstaclesBenchmark.randomPolygons(random, 5000);
+    var manyObstacles = new Obstacles(polygons);
+
+    var points = new ArrayList<Coords>();
+    polygons.subList(0, 100).forEach(polygon -> points.addAll(polygon.generateOutlinePoints()));
+    for (int i = 0; i < 500; i++) {
+      points.add(ObstaclesBenchmark.randomPoint(random));
+    }
+
+    for (var start : points) {
+      assertEquals(
+          "Point " + start,
+          !manyObstacles.isInConfinement(start)
+              || polygons.stream().anyMatch(polygon -> polygon.contains(start)),
+          manyObstacles.pointCollides(start));
+      for (int i = 0; i < 20; i++) {
+        var end =
+            random.nextBoolean()
+                ? points.get(random.nextInt(points.size()))
+                : start.getPositionAfterMoveDegrees(random.nextInt(36) * 10, 0.0003);
+        assertEquals(
+            "Line from " + start + " to " + end,
+            checkEveryPolygon(polygons, start, end),
+            manyObstacles.lineCollision(start, end));
+      }
+    }
+  }
+
+  @Test
+  public void blockedMoveDirectionsMatchLineCollision() {
+    var random = new Random(3);
+    var noFlyZones =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+    // Both the grid and the R-tree are used to find the nearby segments
+    for (var polygons : List.of(noFlyZones, ObstaclesBenchmark.randomPolygons(random, 5000))) {
+      var testObstacles = new Obstacles(polygons);
+      var positions = new ArrayList<Coords>();
+      polygons.forEach(polygon -> positions.addAll(polygon.generateOutlinePoints()));
+      for (int i = 0; i < 2000; i++) {
+        positions.add(ObstaclesBenchmark.randomPoint(random));
+      }
+
+      for (var position : positions) {
+        var blocked =
+            testObstacles.blockedMoveDirections(position, WaypointNavigation.MOVE_LENGTH);
+        for (int i = 0; i < Obstacles.MOVE_DIRECTIONS; i++) {
+          var end = position.getPositionAfterMoveDegrees(10 * i, WaypointNavigation.MOVE_LENGTH);
+          assertEquals(
+              "Move from " + position + " at " + 10 * i + " degrees",
+              testObstacles.lineCollision(position, end),
+              (blocked & (1L << i)) != 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rasterPointCollisionsMatchExactTest() {
+    var random = new Random(2);
+    var polygons = ObstaclesBenchmark.randomPolygons(random, 1000);
+    var exact = new Obstacles(polygons, true, 0, 0);
+    // A small raster so that many points are near the boundary of a cell
+    var rastered = new Obstacles(polygons, true, 0, 1 << 10);
+
+    // The outline points are very close to the polygon edges, so they test the boundary cells
+    var points = new ArrayList<Coords>();
+    polygons.forEach(polygon -> points.addAll(polygon.generateOutlinePoints()));
+    for (int i = 0; i < 20000; i++) {
+      points.add(ObstaclesBenchmark.randomPoint(random));
+    }
+    for (var point : points) {
+      assertEquals("Point " + point, exact.pointCollides(point), rastered.pointCollides(point));
+    }
+  }
+
+  @Test
+  public void cachedCollisionsMatchUncached() {
+    var noFlyZones =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+    // A tiny cache so that entries are evicted and replaced
+    var cachedObstacles = new Obstacles(noFlyZones, true, 64);
+    var cache = cachedObstacles.getVisibilityCache();
+
+    var lines = ObstaclesBenchmark.randomLines(new Random(0), 100, Double.POSITIVE_INFINITY);
+    var random = new Random(1);
+    int checks = 0;
+    for (int i = 0; i < 2000; i++) {
+      var line = lines[random.nextInt(lines.length)];
+      if (!cachedObstacles.isInConfinement(line[0]) || !cachedObstacles.isInConfinement(line[1])) {
+        continue;
+      }
+      assertEquals(
+          obstacles.lineCollision(line[0], line[1]),
+          cachedObstacles.lineCollision(line[0], line[1], CallSite.NAVIGATION));
+      checks++;
+    }
+    assertEquals(checks, cache.getHits(CallSite.NAVIGATION) + cache.getMisses(CallSite.NAVIGATION));
+    assertTrue(cache.getHits(CallSite.NAVIGATION) > 0);
+    assertEquals(0, cache.getHits(CallSite.CORNER_CUTTING));
+  }
+
+  private boolean checkEveryPolygon(List<Polygon> polygons, Coords start, Coords end) {
+    return !obstacles.isInConfinement(start)
+        || !obstacles.isInConfinement(end)
+        || polygons.stream().anyMatch(polygon -> polygon.lineCollision(start, end));
+  }
+
   @ParameterizedTest
   @MethodSource("lineCollisionArguments")
   public void lineCollisionCorrect(String description, TestPath testPath, boolean collision) {
@@ -0,0 +1,134 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.geometry.Polygon;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.ObstacleGraph;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+import uk.ac.ed.inf.aqmaps.noflyzone.ShortestPathMethod;
+import uk.ac.ed.inf.aqmaps.noflyzone.VisibleVertices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the size of the obstacle graphs, the throughput of the shortest path queries and, for
+ * the methods which search the graph, the number of vertices settled per query. It also times the
+ * queries between every pair of a fixed set of points, as when building a SensorGraph, with and
+ * without sharing the vertices visible from each point between them. This is not run as part of the
+ * tests, run the main method instead.
+ */
+public class PathfinderBenchmark {
+  private static final int QUERIES = 2000;
+  private static final int ROUNDS = 5;
+  /** The number of points in the sensor graph benchmark, the same as a day of sensors and start */
+  private static final int SENSORS = 34;
+
+  public static void main(String[] args) {
+    var noFlyZones =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80)
+            .getNoFlyZones();
+    benchmark("the real no-fly zones", noFlyZones);
+    // The graph is only reduced when no sides cross, so the synthetic polygons are kept apart
+    benchmark(
+        "100 synthetic polygons", ObstaclesBenchmark.randomSeparatePolygons(new Random(100), 100));
+    benchmark(
+        "400 synthetic polygons", ObstaclesBenchmark.randomSeparatePolygons(new Random(400), 400));
+  }
+
+  private static void benchmark(String name, List<Polygon> polygons) {
+    var fullObstacles = new Obstacles(polygons, false);
+    var reducedObstacles = new Obstacles(polygons, true);
+
+    var outlinePoints = new ArrayList<Coords>();
+    polygons.forEach(polygon -> outlinePoints.addAll(polygon.generateOutlinePoints()));
+    var fullGraph = ObstacleGraph.prepareGraph(outlinePoints, fullObstacles);
+    var reducedGraph = ObstacleGraph.prepareReducedGraph(polygons, reducedObstacles);
+
+    System.out.printf("Obstacle graphs for %s:%n", name);
+    System.out.printf(
+        "  full:    %6d vertices %8d edges%n",
+        fullGraph.vertexSet().size(), fullGraph.edgeSet().size());
+    System.out.printf(
+        "  reduced: %6d vertices %8d edges%n",
+        reducedGraph.vertexSet().size(), reducedGraph.edgeSet().size());
+
+    // Only pairs of points without a direct path need to search the graph
+    var random = new Random(0);
+    var pairs = new ArrayList<Coords[]>();
+    while (pairs.size() < QUERIES) {
+      var start = ObstaclesBenchmark.randomPoint(random);
+      var end = ObstaclesBenchmark.randomPoint(random);
+      if (!fullObstacles.pointCollides(start)
+          && !fullObstacles.pointCollides(end)
+          && fullObstacles.lineCollision(start, end)) {
+        pairs.add(new Coords[] {start, end});
+      }
+    }
+
+    System.out.println("Shortest path queries per second:");
+    for (var method : ShortestPathMethod.values()) {
+      benchmarkShortestPaths("full graph, " + method, pairs, fullObstacles, method);
+      benchmarkShortestPaths("reduced graph, " + method, pairs, reducedObstacles, method);
+    }
+
+    var sensors = new ArrayList<Coords>();
+    while (sensors.size() < SENSORS) {
+      var point = ObstaclesBenchmark.randomPoint(random);
+      if (!reducedObstacles.pointCollides(point)) {
+        sensors.add(point);
+      }
+    }
+    System.out.printf("Sensor graphs of %d points per second:%n", SENSORS);
+    benchmarkSensorGraph("no shared visible vertices", sensors, reducedObstacles, false);
+    benchmarkSensorGraph("shared visible vertices", sensors, reducedObstacles, true);
+  }
+
+  private static void benchmarkSensorGraph(
+      String name, List<Coords> sensors, Obstacles obstacles, boolean share) {
+    var pathfinder = obstacles.getObstaclePathfinder();
+    double best = 0;
+    double totalLength = 0;
+    for (int round = 0; round < ROUNDS * 10; round++) {
+      totalLength = 0;
+      long start = System.nanoTime();
+      var visible = new VisibleVertices[sensors.size()];
+      if (share) {
+        for (int i = 0; i < sensors.size(); i++) {
+          visible[i] = pathfinder.getVisibleVertices(sensors.get(i));
+        }
+      }
+      for (int i = 0; i < sensors.size() - 1; i++) {
+        for (int j = i + 1; j < sensors.size(); j++) {
+          totalLength +=
+              pathfinder.getShortestPathLength(
+                  sensors.get(i), sensors.get(j), visible[i], visible[j]);
+        }
+      }
+      best = Math.max(best, 1 / ((System.nanoTime() - start) / 1e9));
+    }
+    System.out.printf("  %-30s %,14.1f graphs/s (total length %.9f)%n", name, best, totalLength);
+  }
+
+  private static void benchmarkShortestPaths(
+      String name, List<Coords[]> pairs, Obstacles obstacles, ShortestPathMethod method) {
+    var pathfinder = obstacles.getObstaclePathfinder(method);
+    double best = 0;
+    double totalLength = 0;
+    long totalSettled = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      totalLength = 0;
+      totalSettled = 0;
+      long start = System.nanoTime();
+      for (var pair : pairs) {
+        totalLength += pathfinder.getShortestPathLength(pair[0], pair[1]);
+        totalSettled += pathfinder.getLastSettledCount();
+      }
+      best = Math.max(best, pairs.size() / ((System.nanoTime() - start) / 1e9));
+    }
+    System.out.printf(
+        "  %-30s %,14.0f queries/s %8.1f settled (total length %.9f)%n",
+        name, best, (double) totalSettled / pairs.size(), totalLength);
+  }
+}
@@ -0,0 +1,66 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.flightplanning.PlanningExecutor;
+import uk.ac.ed.inf.aqmaps.flightplanning.TourMethod;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures how the number of flight planning iterations per second grows with the number of
+ * workers in the {@link PlanningExecutor}. Each run plans from the prescribed start on 01/01/2020
+ * with a new FlightPlanner, so that every run starts with an empty cache, after one run which is
+ * not counted to warm up the JIT compiler. This is not run as part of the tests, run the main
+ * method instead. The time limit per run in seconds can be given as an
+ * argument, and defaults to 2.
+ */
+public class PlanningScalingBenchmark {
+  private static final int[] WORKERS = {1, 2, 4, 8, 16};
+
+  public static void main(String[] args) {
+    var timeLimit = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var out = System.out;
+    var quiet = new PrintStream(OutputStream.nullOutputStream());
+
+    out.printf(
+        "%d available processors, %.1f s per run%n",
+        Runtime.getRuntime().availableProcessors(), timeLimit);
+    out.printf("%8s %12s %16s %10s%n", "workers", "iterations", "iterations/s", "speedup");
+    System.setOut(quiet);
+    run(input, obstacles, WORKERS[WORKERS.length - 1], timeLimit);
+    System.setOut(out);
+
+    double baseline = 0;
+    for (var workers : WORKERS) {
+      System.setOut(quiet);
+      var start = System.nanoTime();
+      var iterations = run(input, obstacles, workers, timeLimit);
+      var seconds = (System.nanoTime() - start) / 1e9;
+      System.setOut(out);
+
+      var perSecond = iterations / seconds;
+      if (baseline == 0) {
+        baseline = perSecond;
+      }
+      out.printf("%8d %12d %16.1f %9.2fx%n", workers, iterations, perSecond, perSecond / baseline);
+    }
+  }
+
+  /** @return the number of iterations completed */
+  private static int run(
+      ServerInputController input, Obstacles obstacles, int workers, double timeLimit) {
+    try (var executor = new PlanningExecutor(workers)) {
+      var flightPlanner =
+          new FlightPlanner(
+              obstacles, input.getSensorW3Ws(), 0, timeLimit, TourMethod.TWO_OPT, executor);
+      flightPlanner.createBestFlightPlan(FlightPlannerTest.PRESCRIBED_START);
+      return flightPlanner.getLastIterationCount();
+    }
+  }
+}
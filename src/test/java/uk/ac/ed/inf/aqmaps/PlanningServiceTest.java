@@ -0,0 +1,104 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.io.OutputController;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class PlanningServiceTest {
+
+  @Test
+  public void concurrentJobsAllComplete() throws Exception {
+    // An output controller which does nothing, since the outputs are tested in DroneTest
+    var output =
+        new OutputController() {
+          @Override
+          public void outputFlightpath(String flightpathText) {}
+
+          @Override
+          public void outputMapGeoJSON(String json) {}
+        };
+
+    var futures = new ArrayList<CompletableFuture<List<Move>>>();
+    try (var service =
+        new PlanningService(
+            2,
+            settings ->
+                new ServerInputController(
+                    ServerInputControllerTest.getFakeServer(),
+                    settings.getDay(),
+                    settings.getMonth(),
+                    settings.getYear(),
+                    settings.getPort()),
+            settings -> output)) {
+      assertEquals(Runtime.version().feature() >= 21, service.usesVirtualThreads());
+      for (int month = 1; month <= 4; month++) {
+        var settings =
+            new Settings(
+                new String[] {"1", "" + month, "2020", "55.944425", "-3.188396", "0", "80", "0.2"});
+        futures.add(service.submit(settings));
+      }
+    }
+
+    for (var future : futures) {
+      assertTrue("The service should wait for its jobs when it is closed", future.isDone());
+      var flightPlan = future.get();
+      assertFalse(flightPlan.isEmpty());
+      assertTrue(flightPlan.size() <= 150);
+      assertEquals(33, flightPlan.stream().filter(move -> move.getSensorW3W() != null).count());
+    }
+  }
+
+  @Test
+  public void failingJobDoesNotStopTheOthers() throws Exception {
+    var output =
+        new OutputController() {
+          @Override
+          public void outputFlightpath(String flightpathText) {}
+
+          @Override
+          public void outputMapGeoJSON(String json) {}
+        };
+
+    // Port 80 is the fake server. The job on port 1 uses the real web server, where nothing is
+    // listening, which used to exit the JVM.
+    var futures = new ArrayList<CompletableFuture<List<Move>>>();
+    try (var service =
+        new PlanningService(
+            2,
+            settings ->
+                settings.getPort() == 80
+                    ? new ServerInputController(
+                        ServerInputControllerTest.getFakeServer(),
+                        settings.getDay(),
+                        settings.getMonth(),
+                        settings.getYear(),
+                        settings.getPort())
+                    : new ServerInputController(settings),
+            settings -> output)) {
+      for (var port : new String[] {"80", "1", "80"}) {
+        var settings =
+            new Settings(
+                new String[] {"1", "1", "2020", "55.944425", "-3.188396", "0", port, "0.2"});
+        futures.add(service.submit(settings));
+      }
+    }
+
+    try {
+      futures.get(1).get();
+      fail("The job with no server should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof UncheckedIOException);
+    }
+    for (var future : List.of(futures.get(0), futures.get(2))) {
+      assertEquals(33, future.get().stream().filter(move -> move.getSensorW3W() != null).count());
+    }
+  }
+}
@@ -2,11 +2,14 @@ package uk.ac.ed.inf.aqmaps;
 
 import org.junit.Before;
 import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
 import uk.ac.ed.inf.aqmaps.geometry.Polygon;
 import uk.ac.ed.inf.aqmaps.io.ServerInputController;
 import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -62,5 +65,31 @@ public class PolygonTest {
     }
   }
 
-  // Polygon.lineCollision() is not tested directly since it is covered by Obstacles.lineCollision()
+  @Test
+  public void lineCollisionMatchesLine2D() {
+    var random = new Random(0);
+    for (var polygon : noFlyZones) {
+      // Lines between the vertices, the outline points and random points near the polygon, which
+      // covers touching, collinear and overlapping lines as well as ordinary crossings
+      var points = new ArrayList<>(polygon.getPoints());
+      points.addAll(polygon.generateOutlinePoints());
+      var box = polygon.getBoundingBox();
+      for (int i = 0; i < 200; i++) {
+        points.add(
+            new Coords(
+                box.getMinX() + (random.nextDouble() * 1.2 - 0.1) * box.getWidth(),
+                box.getMinY() + (random.nextDouble() * 1.2 - 0.1) * box.getHeight()));
+      }
+
+      for (var start : points) {
+        for (var end : points) {
+          var expected =
+              box.intersectsLine(start.x, start.y, end.x, end.y)
+                  && polygon.getSegments().stream()
+                      .anyMatch(s -> s.intersectsLine(start.x, start.y, end.x, end.y));
+          assertEquals(expected, polygon.lineCollision(start, end));
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,105 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import uk.ac.ed.inf.aqmaps.flightplanning.SensorGraph;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time to build a SensorGraph, compared with filling a JGraphT graph one pair at a
+ * time on one thread, and the time to look up every distance in each. This is not run as part of
+ * the tests, run the main method instead.
+ */
+public class SensorGraphBenchmark {
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var start = FlightPlannerTest.PRESCRIBED_START;
+
+    var sensors = new ArrayList<Coords>();
+    input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+    benchmark("the 33 sensors of a day", start, sensors, obstacles);
+
+    var random = new Random(0);
+    var randomSensors = new ArrayList<Coords>();
+    while (randomSensors.size() < 500) {
+      var point = ObstaclesBenchmark.randomPoint(random);
+      if (!obstacles.pointCollides(point)) {
+        randomSensors.add(point);
+      }
+    }
+    benchmark("500 random sensors", start, randomSensors, obstacles);
+  }
+
+  private static void benchmark(
+      String name, Coords start, List<Coords> sensors, Obstacles obstacles) {
+    var pathfinder = obstacles.getObstaclePathfinder();
+    double bestJGraphT = Double.POSITIVE_INFINITY;
+    double bestMatrix = Double.POSITIVE_INFINITY;
+    SimpleWeightedGraph<Coords, DefaultWeightedEdge> graph = null;
+    SensorGraph sensorGraph = null;
+    for (int round = 0; round < ROUNDS; round++) {
+      // The way the graph used to be built
+      long time = System.nanoTime();
+      graph = new SimpleWeightedGraph<>(DefaultWeightedEdge.class);
+      sensors.forEach(graph::addVertex);
+      graph.addVertex(start);
+      var vertexList = new ArrayList<>(graph.vertexSet());
+      for (int i = 0; i < vertexList.size() - 1; i++) {
+        for (int j = i + 1; j < vertexList.size(); j++) {
+          var edge = graph.addEdge(vertexList.get(i), vertexList.get(j));
+          graph.setEdgeWeight(
+              edge, pathfinder.getShortestPathLength(vertexList.get(i), vertexList.get(j)));
+        }
+      }
+      bestJGraphT = Math.min(bestJGraphT, (System.nanoTime() - time) / 1e6);
+
+      time = System.nanoTime();
+      sensorGraph = SensorGraph.createWithStartLocation(start, sensors, obstacles);
+      bestMatrix = Math.min(bestMatrix, (System.nanoTime() - time) / 1e6);
+    }
+    System.out.printf("Building the sensor graph for %s:%n", name);
+    System.out.printf("  JGraphT, one thread:    %10.2f ms%n", bestJGraphT);
+    System.out.printf("  SensorGraph, parallel:  %10.2f ms%n", bestMatrix);
+
+    bestJGraphT = Double.POSITIVE_INFINITY;
+    bestMatrix = Double.POSITIVE_INFINITY;
+    double totalJGraphT = 0;
+    double totalMatrix = 0;
+    int n = sensorGraph.size();
+    for (int round = 0; round < ROUNDS; round++) {
+      totalJGraphT = 0;
+      long time = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          if (i != j) {
+            var edge = graph.getEdge(sensorGraph.getPoint(i), sensorGraph.getPoint(j));
+            totalJGraphT += graph.getEdgeWeight(edge);
+          }
+        }
+      }
+      bestJGraphT = Math.min(bestJGraphT, (System.nanoTime() - time) / 1e6);
+
+      totalMatrix = 0;
+      time = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          totalMatrix += sensorGraph.getDistance(i, j);
+        }
+      }
+      bestMatrix = Math.min(bestMatrix, (System.nanoTime() - time) / 1e6);
+    }
+    System.out.printf("Looking up all %d distances:%n", n * (n - 1));
+    System.out.printf("  JGraphT:     %10.3f ms (total %.9f)%n", bestJGraphT, totalJGraphT);
+    System.out.printf("  SensorGraph: %10.3f ms (total %.9f)%n", bestMatrix, totalMatrix);
+  }
+}
@@ -0,0 +1,45 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.flightplanning.SensorGraph;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class SensorGraphTest {
+
+  @Test
+  public void distancesAreShortestPathLengths() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var pathfinder = obstacles.getObstaclePathfinder();
+    var start = FlightPlannerTest.PRESCRIBED_START;
+    var sensors = new ArrayList<Coords>();
+    input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+
+    var sensorGraph = SensorGraph.createWithStartLocation(start, sensors, obstacles);
+    assertEquals(sensors.size() + 1, sensorGraph.size());
+    assertEquals(sensors.size(), sensorGraph.getId(start));
+
+    var graph = sensorGraph.asGraph();
+    for (int i = 0; i < sensorGraph.size(); i++) {
+      var a = sensorGraph.getPoint(i);
+      assertEquals(i, sensorGraph.getId(a));
+      assertEquals(0, sensorGraph.getDistance(i, i), 0);
+      for (int j = 0; j < sensorGraph.size(); j++) {
+        if (i == j) {
+          continue;
+        }
+        var b = sensorGraph.getPoint(j);
+        var length = pathfinder.getShortestPathLength(i < j ? a : b, i < j ? b : a);
+        assertEquals(length, sensorGraph.getDistance(i, j), 0);
+        assertEquals(length, graph.getEdgeWeight(graph.getEdge(a, b)), 0);
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.flightplanning.TourMethod;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Measures how long after the time limit flight planning finishes with each tour method. Each run
+ * plans from the prescribed start on 01/01/2020 with a new FlightPlanner, so that its cache is
+ * empty, which is when legs take longest. The first run of each method is not counted, since it is
+ * slower while the JIT compiler warms up. This is not run as part of the tests, since the timings
+ * depend on the machine and what else it is doing, run the main method instead. The number of
+ * runs and the time limit per run in seconds can be given as arguments, and default to 25 and
+ * 0.05.
+ */
+public class TimeLimitOverrunBenchmark {
+  public static void main(String[] args) {
+    var runs = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+    var timeLimit = args.length > 1 ? Double.parseDouble(args[1]) : 0.05;
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var out = System.out;
+    var quiet = new PrintStream(OutputStream.nullOutputStream());
+
+    out.printf("%d runs of %.3f s, overrun in ms%n", runs, timeLimit);
+    out.printf("%-20s %8s %8s %8s %8s%n", "method", "p50", "p90", "p99", "max");
+    for (var method : TourMethod.values()) {
+      var overruns = new double[runs];
+      System.setOut(quiet);
+      for (int i = -1; i < runs; i++) {
+        var flightPlanner =
+            new FlightPlanner(obstacles, input.getSensorW3Ws(), i * 100, timeLimit, method);
+        var startTime = System.nanoTime();
+        flightPlanner.createBestFlightPlan(FlightPlannerTest.PRESCRIBED_START);
+        if (i >= 0) {
+          overruns[i] = (System.nanoTime() - startTime) / 1e6 - timeLimit * 1000;
+        }
+      }
+      System.setOut(out);
+
+      Arrays.sort(overruns);
+      out.printf(
+          "%-20s %8.1f %8.1f %8.1f %8.1f%n",
+          method,
+          percentile(overruns, 0.5),
+          percentile(overruns, 0.9),
+          percentile(overruns, 0.99),
+          overruns[runs - 1]);
+    }
+  }
+
+  /**
+   * @param sorted the values, in ascending order
+   * @param fraction the fraction of the values which are at most the percentile
+   * @return the percentile, using the nearest rank
+   */
+  static double percentile(double[] sorted, double fraction) {
+    return sorted[Math.max(0, (int) Math.ceil(fraction * sorted.length) - 1)];
+  }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.flightplanning.EnhancedTwoOptTSP;
+import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.flightplanning.SensorGraph;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * Measures the time and memory allocated per call of {@link EnhancedTwoOptTSP#getTour}, which finds
+ * one tour from one random seed. This is not run as part of the tests, run the main method instead.
+ */
+public class TourBenchmark {
+  private static final int SEEDS = 20;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    var threadId = Thread.currentThread().getId();
+
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var start = FlightPlannerTest.PRESCRIBED_START;
+    var sensors = new ArrayList<Coords>();
+    input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+    var sensorGraph = SensorGraph.createWithStartLocation(start, sensors, obstacles);
+
+    double bestNanos = Double.POSITIVE_INFINITY;
+    double bestBytes = Double.POSITIVE_INFINITY;
+    long totalLength = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      // A new planner each round so that its leg cache starts empty
+      var flightPlanner = new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0);
+      var tours = new ArrayList<java.util.List<Coords>>();
+      long bytes = threadBean.getThreadAllocatedBytes(threadId);
+      long time = System.nanoTime();
+      for (int seed = 0; seed < SEEDS; seed++) {
+        tours.add(new EnhancedTwoOptTSP(1, seed, start, flightPlanner).getTour(sensorGraph));
+      }
+      var nanos = System.nanoTime() - time;
+      bytes = threadBean.getThreadAllocatedBytes(threadId) - bytes;
+      bestNanos = Math.min(bestNanos, (double) nanos / SEEDS);
+      bestBytes = Math.min(bestBytes, (double) bytes / SEEDS);
+
+      totalLength = 0;
+      for (var tour : tours) {
+        totalLength += flightPlanner.computeFlightLength(tour);
+      }
+    }
+    System.out.printf(
+        "getTour: %,.2f ms and %,.0f KB allocated per call (total moves %d)%n",
+        bestNanos / 1e6, bestBytes / 1e3, totalLength);
+  }
+}
@@ -0,0 +1,152 @@
+package uk.ac.ed.inf.aqmaps;
+
+import uk.ac.ed.inf.aqmaps.flightplanning.Deadline;
+import uk.ac.ed.inf.aqmaps.flightplanning.EnhancedTwoOptTSP;
+import uk.ac.ed.inf.aqmaps.flightplanning.FlightPlanner;
+import uk.ac.ed.inf.aqmaps.flightplanning.LinKernighanTSP;
+import uk.ac.ed.inf.aqmaps.flightplanning.SensorGraph;
+import uk.ac.ed.inf.aqmaps.flightplanning.SimulatedAnnealingTSP;
+import uk.ac.ed.inf.aqmaps.flightplanning.TourMethod;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the tour methods by the shortest flight found from the prescribed start against the CPU
+ * time spent, on the dates in WebServer/maps. For each date and method, tours are found with seeds
+ * 0, 1, 2, ... on one thread until the time runs out, and the shortest so far is noted at each
+ * checkpoint. Simulated annealing instead runs one chain with each checkpoint as its time limit.
+ * This is not run as part of the tests, run the main method instead. By default it uses the first
+ * day of each month, pass "all" as an argument to use every date.
+ */
+public class TourMethodBenchmark {
+  /** The CPU seconds per date at which to report the shortest flight so far */
+  private static final double[] CHECKPOINTS = {0.1, 0.25, 0.5, 1, 2};
+
+  public static void main(String[] args) {
+    var allDates = args.length > 0 && args[0].equals("all");
+    var dates = getDates(allDates);
+    System.out.printf("Mean shortest flight over %d dates by CPU seconds per date:%n", dates.size());
+    System.out.printf("%-15s", "");
+    for (var checkpoint : CHECKPOINTS) {
+      System.out.printf("%9.2f s", checkpoint);
+    }
+    System.out.println();
+
+    var totals = new double[TourMethod.values().length][CHECKPOINTS.length];
+    var iterations = new long[TourMethod.values().length];
+    for (var date : dates) {
+      var input =
+          new ServerInputController(
+              ServerInputControllerTest.getFakeServer(), date[0], date[1], date[2], 80);
+      var obstacles = new Obstacles(input.getNoFlyZones());
+      var sensors = new ArrayList<Coords>();
+      input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+      var start = FlightPlannerTest.PRESCRIBED_START;
+      var sensorGraph = SensorGraph.createWithStartLocation(start, sensors, obstacles);
+
+      for (var method : TourMethod.values()) {
+        var flightPlanner = new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0, method);
+        var best =
+            method == TourMethod.SIMULATED_ANNEALING
+                ? annealByCheckpoint(start, sensorGraph, flightPlanner)
+                : shortestByCheckpoint(method, start, sensorGraph, flightPlanner);
+        for (int i = 0; i < CHECKPOINTS.length; i++) {
+          totals[method.ordinal()][i] += best[i];
+        }
+        iterations[method.ordinal()] += best[CHECKPOINTS.length];
+      }
+    }
+
+    for (var method : TourMethod.values()) {
+      System.out.printf("%-15s", method);
+      for (var total : totals[method.ordinal()]) {
+        System.out.printf("%11.2f", total / dates.size());
+      }
+      System.out.printf(
+          "   (%.1f tours per CPU second)%n",
+          iterations[method.ordinal()] / (CHECKPOINTS[CHECKPOINTS.length - 1] * dates.size()));
+    }
+  }
+
+  /**
+   * @return the shortest flight length found by each checkpoint, followed by the number of tours
+   *     found in total
+   */
+  private static int[] shortestByCheckpoint(
+      TourMethod method, Coords start, SensorGraph sensorGraph, FlightPlanner flightPlanner) {
+    var threadBean = ManagementFactory.getThreadMXBean();
+    var result = new int[CHECKPOINTS.length + 1];
+    var best = Integer.MAX_VALUE;
+    var startTime = threadBean.getCurrentThreadCpuTime();
+    int checkpoint = 0;
+    for (int seed = 0; checkpoint < CHECKPOINTS.length; seed++) {
+      List<Coords> tour;
+      if (method == TourMethod.LIN_KERNIGHAN) {
+        tour = new LinKernighanTSP(seed, start, flightPlanner).getTour(sensorGraph);
+      } else {
+        tour = new EnhancedTwoOptTSP(1, seed, start, flightPlanner).getTour(sensorGraph);
+      }
+      var seconds = (threadBean.getCurrentThreadCpuTime() - startTime) / 1e9;
+      while (checkpoint < CHECKPOINTS.length && seconds > CHECKPOINTS[checkpoint]) {
+        // Tours which finish after a checkpoint do not count towards it
+        result[checkpoint++] = best;
+      }
+      best = Math.min(best, flightPlanner.computeFlightLength(tour));
+      result[CHECKPOINTS.length] = seed + 1;
+    }
+    return result;
+  }
+
+  /**
+   * @return the flight length found by a chain with each checkpoint as its time limit, followed by
+   *     the number of chains
+   */
+  private static int[] annealByCheckpoint(
+      Coords start, SensorGraph sensorGraph, FlightPlanner flightPlanner) {
+    var result = new int[CHECKPOINTS.length + 1];
+    for (int i = 0; i < CHECKPOINTS.length; i++) {
+      var deadline = Deadline.after(CHECKPOINTS[i]);
+      var tour = new SimulatedAnnealingTSP(0, start, flightPlanner, deadline).getTour(sensorGraph);
+      result[i] = flightPlanner.computeFlightLength(tour);
+    }
+    result[CHECKPOINTS.length] = CHECKPOINTS.length;
+    return result;
+  }
+
+  /**
+   * @param allDates true for every date in WebServer/maps, false for the first of each month
+   * @return the dates as arrays of day, month and year
+   */
+  private static List<int[]> getDates(boolean allDates) {
+    var maps = new File(TourMethodBenchmark.class.getResource("/WebServer/maps").getFile());
+    var dates = new ArrayList<int[]>();
+    for (var year : sortedFiles(maps)) {
+      for (var month : sortedFiles(year)) {
+        for (var day : sortedFiles(month)) {
+          if (allDates || day.getName().equals("01")) {
+            dates.add(
+                new int[] {
+                  Integer.parseInt(day.getName()),
+                  Integer.parseInt(month.getName()),
+                  Integer.parseInt(year.getName())
+                });
+          }
+        }
+      }
+    }
+    return dates;
+  }
+
+  private static List<File> sortedFiles(File directory) {
+    var files = directory.listFiles(File::isDirectory);
+    var list = new ArrayList<File>(files == null ? List.of() : List.of(files));
+    list.sort(null);
+    return list;
+  }
+}
@@ -0,0 +1,79 @@
+package uk.ac.ed.inf.aqmaps.flightplanning;
+
+import org.junit.Test;
+import uk.ac.ed.inf.aqmaps.FlightPlannerTest;
+import uk.ac.ed.inf.aqmaps.ServerInputControllerTest;
+import uk.ac.ed.inf.aqmaps.geometry.Coords;
+import uk.ac.ed.inf.aqmaps.io.ServerInputController;
+import uk.ac.ed.inf.aqmaps.noflyzone.Obstacles;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the flight lengths which start from a recorded prefix against full flight lengths. This is
+ * in the flightplanning package since the prefix and the methods which use it are package-private.
+ */
+public class FlightPrefixTest {
+  private static final int TOUR_PAIRS = 200;
+
+  @Test
+  public void resumedLengthMatchesFullLength() {
+    var input =
+        new ServerInputController(ServerInputControllerTest.getFakeServer(), 1, 1, 2020, 80);
+    var obstacles = new Obstacles(input.getNoFlyZones());
+    var planner = new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0);
+    // The full lengths are found by a separate planner, so that they do not come from the legs
+    // which the planner under test has cached
+    var reference = new FlightPlanner(obstacles, input.getSensorW3Ws(), 0, 0);
+
+    var sensors = new ArrayList<Coords>();
+    input.getSensorW3Ws().forEach(w3w -> sensors.add(w3w.getCoordinates()));
+    var random = new Random(0);
+    var prefix = new FlightPrefix(sensors.size() + 2);
+    for (int pair = 0; pair < TOUR_PAIRS; pair++) {
+      var recorded = randomTour(sensors, random);
+      var tour = new ArrayList<>(recorded);
+      // Reverse a random section, as a 2-opt move does
+      var first = 1 + random.nextInt(sensors.size() - 1);
+      var last = first + 1 + random.nextInt(sensors.size() - first);
+      Collections.reverse(tour.subList(first, last + 1));
+
+      planner.computeFlightLength(recorded, prefix, Deadline.NONE);
+      var expected = reference.computeFlightLength(tour);
+      assertEquals(
+          "Flight resumed from index " + first,
+          expected,
+          planner.computeFlightLength(tour, prefix, first, Integer.MAX_VALUE, Deadline.NONE));
+
+      // A bounded length is only below the bound when the real length is, and then it is exact
+      var bound = expected - 5 + random.nextInt(11);
+      var bounded = planner.computeFlightLength(tour, prefix, first, bound, Deadline.NONE);
+      assertEquals(
+          "Bounded length " + bounded + " for bound " + bound + " and length " + expected,
+          expected < bound,
+          bounded < bound);
+      if (bounded < bound) {
+        assertEquals(expected, bounded);
+      }
+    }
+  }
+
+  /**
+   * @param sensors the sensor coordinates
+   * @param random the random number generator
+   * @return a tour from the prescribed start through the sensors in a random order and back
+   */
+  private static List<Coords> randomTour(List<Coords> sensors, Random random) {
+    var tour = new ArrayList<Coords>();
+    tour.add(FlightPlannerTest.PRESCRIBED_START);
+    tour.addAll(sensors);
+    Collections.shuffle(tour.subList(1, tour.size()), random);
+    tour.add(FlightPlannerTest.PRESCRIBED_START);
+    return tour;
+  }
+}